@@ -0,0 +1,84 @@
+package auth.kerberos.example.benchmarks;
+
+import org.apache.kerby.kerberos.kerb.KrbException;
+import org.apache.kerby.kerberos.kerb.server.SimpleKdcServer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.security.Security;
+
+/**
+ * In-process Kerberos KDC (Apache Kerby) with a client principal and HTTP service principals, standing in for a real
+ * KDC so the SPNEGO code paths can run on a plain box.
+ * <p>
+ * {@link #configureJvm()} points JGSS at the generated krb5.conf and sets the login properties read by
+ * {@code KerberosCallBackHandler}, mirroring what the flavor mains do against a real KDC.
+ */
+public class EmbeddedKdc implements Closeable {
+    public static final String REALM = "EXAMPLE.COM";
+    public static final String USER = "user";
+    public static final String PASSWORD = "pass";
+
+    private final SimpleKdcServer kdc;
+    private final File workDir;
+
+    /**
+     * Starts the KDC and registers {@code HTTP/host} service principals for each given host, with their keys exported
+     * to {@link #getServiceKeytab()} for acceptors. The client keys go to {@link #getClientKeytab()}.
+     */
+    public EmbeddedKdc(String... serviceHosts) throws IOException, KrbException {
+        this.workDir = Files.createTempDirectory("embedded-kdc").toFile();
+        this.kdc = new SimpleKdcServer();
+        kdc.setWorkDir(workDir);
+        kdc.setKdcHost("localhost");
+        kdc.setKdcRealm(REALM);
+        kdc.setAllowUdp(false);
+        kdc.setKdcTcpPort(freePort());
+        kdc.init();
+        kdc.start();
+
+        kdc.createPrincipal(USER, PASSWORD);
+        kdc.exportPrincipal(USER, getClientKeytab());
+        String[] servicePrincipals = new String[serviceHosts.length];
+        for (int i = 0; i < serviceHosts.length; i++) {
+            servicePrincipals[i] = "HTTP/" + serviceHosts[i];
+        }
+        if (servicePrincipals.length > 0) {
+            kdc.createAndExportPrincipals(getServiceKeytab(), servicePrincipals);
+        }
+    }
+
+    public void configureJvm() {
+        System.setProperty("java.security.krb5.conf", new File(workDir, "krb5.conf").getAbsolutePath());
+        System.setProperty("javax.security.auth.useSubjectCredsOnly", "true");
+        Security.setProperty("java.security.krb5.login.user", USER);
+        Security.setProperty("java.security.krb5.login.password", PASSWORD);
+        Security.setProperty("auth.login.defaultCallbackHandler", "auth.kerberos.example.commons.security.KerberosCallBackHandler");
+    }
+
+    public File getServiceKeytab() {
+        return new File(workDir, "services.keytab");
+    }
+
+    public File getClientKeytab() {
+        return new File(workDir, "client.keytab");
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            kdc.stop();
+        } catch (KrbException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
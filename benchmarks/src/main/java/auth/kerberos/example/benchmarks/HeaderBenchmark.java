@@ -0,0 +1,103 @@
+package auth.kerberos.example.benchmarks;
+
+import auth.kerberos.example.commons.security.KerberosCallBackHandler;
+import auth.kerberos.example.commons.security.KerberosCredentialManager;
+import auth.kerberos.example.commons.security.SpnegoEngineConfig;
+import auth.kerberos.example.commons.security.SpnegoEngineRegistry;
+import auth.kerberos.example.okhttp3.KerberosProxyAuthenticator;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.kerby.kerberos.kerb.KrbException;
+import org.openjdk.jmh.annotations.*;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.PasswordCallback;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import javax.security.auth.login.LoginException;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costs around the token itself: Base64 encoding and header construction, the okhttp3 authenticator round
+ * (engine lookup, token, request rebuild) and the login callback handler.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HeaderBenchmark {
+    private static final String PROXY_HOST = "localhost";
+    /*
+     * Typical size of an SPNEGO-wrapped AP-REQ with AES keys
+     * */
+    private static final int TOKEN_SIZE = 1400;
+
+    private final Base64 base64codec = new Base64(0);
+    private final KerberosCallBackHandler callbackHandler = new KerberosCallBackHandler();
+
+    private EmbeddedKdc kdc;
+    private KerberosCredentialManager credentialManager;
+    private SpnegoEngineRegistry engineRegistry;
+    private KerberosProxyAuthenticator authenticator;
+    private byte[] rawToken;
+    private Response challenge;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, KrbException, LoginException {
+        kdc = new EmbeddedKdc(PROXY_HOST);
+        kdc.configureJvm();
+
+        credentialManager = new KerberosCredentialManager();
+        credentialManager.login();
+        engineRegistry = new SpnegoEngineRegistry(new SpnegoEngineConfig());
+        authenticator = new KerberosProxyAuthenticator(PROXY_HOST, credentialManager, false, engineRegistry);
+
+        rawToken = new byte[TOKEN_SIZE];
+        new Random(42).nextBytes(rawToken);
+        challenge = new Response.Builder()
+                .request(new Request.Builder().url("http://origin.example.com/").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(407)
+                .message("Proxy Authentication Required")
+                .header("Proxy-Authenticate", "Negotiate")
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        engineRegistry.close();
+        credentialManager.close();
+        kdc.close();
+    }
+
+    @Benchmark
+    public String base64Encode() {
+        return new String(base64codec.encode(rawToken));
+    }
+
+    @Benchmark
+    public String headerConstruction() {
+        return "Negotiate " + new String(base64codec.encode(rawToken));
+    }
+
+    @Benchmark
+    public Request authenticate() throws IOException {
+        return authenticator.authenticate(null, challenge);
+    }
+
+    @Benchmark
+    public Callback[] callbackHandler() throws UnsupportedCallbackException {
+        Callback[] callbacks = new Callback[]{
+                new NameCallback("user"),
+                new PasswordCallback("password", false)
+        };
+        callbackHandler.handle(callbacks);
+        return callbacks;
+    }
+}
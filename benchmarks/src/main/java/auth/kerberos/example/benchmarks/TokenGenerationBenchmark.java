@@ -0,0 +1,90 @@
+package auth.kerberos.example.benchmarks;
+
+import auth.kerberos.example.commons.security.GssWorkerPool;
+import auth.kerberos.example.commons.security.KerberosCredentialManager;
+import auth.kerberos.example.commons.security.SpnegoEngine;
+import auth.kerberos.example.commons.security.SpnegoEngineConfig;
+import org.apache.kerby.kerberos.kerb.KrbException;
+import org.openjdk.jmh.annotations.*;
+
+import javax.security.auth.login.LoginException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SPNEGO token generation against the embedded KDC: full login (cold), cached credentials (warm, single and
+ * concurrent callers, with and without the worker pool) and pooled pre-generated tokens.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenGenerationBenchmark {
+    private static final String PROXY_HOST = "localhost";
+
+    private EmbeddedKdc kdc;
+    private KerberosCredentialManager credentialManager;
+    private SpnegoEngine warmEngine;
+    private SpnegoEngine pooledWorkerEngine;
+    private SpnegoEngine tokenPoolEngine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, KrbException, LoginException {
+        kdc = new EmbeddedKdc(PROXY_HOST);
+        kdc.configureJvm();
+
+        credentialManager = new KerberosCredentialManager();
+        credentialManager.login();
+        warmEngine = new SpnegoEngine(PROXY_HOST, credentialManager);
+        pooledWorkerEngine = new SpnegoEngine(PROXY_HOST, SpnegoEngine.DEFAULT_SERVICE_NAME, SpnegoEngine.GSS_SPNEGO_MECH_OID,
+                credentialManager, new SpnegoEngineConfig().setWorkerPool(new GssWorkerPool(4, 4096)));
+        tokenPoolEngine = new SpnegoEngine(PROXY_HOST, SpnegoEngine.DEFAULT_SERVICE_NAME, SpnegoEngine.GSS_SPNEGO_MECH_OID,
+                credentialManager, new SpnegoEngineConfig().setTokenPoolDepth(64));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        warmEngine.close();
+        pooledWorkerEngine.close();
+        tokenPoolEngine.close();
+        credentialManager.close();
+        kdc.close();
+    }
+
+    /**
+     * AS-REQ plus TGS-REQ for every token, the cost a challenge paid before credentials were cached.
+     */
+    @Benchmark
+    public String coldLogin() throws Exception {
+        try (KerberosCredentialManager cold = new KerberosCredentialManager();
+             SpnegoEngine engine = new SpnegoEngine(PROXY_HOST, cold)) {
+            cold.login();
+            return engine.generateToken();
+        }
+    }
+
+    @Benchmark
+    public String warmCredentials() throws Exception {
+        return warmEngine.generateToken();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String warmCredentialsConcurrent() throws Exception {
+        return warmEngine.generateToken();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String workerPoolConcurrent() throws Exception {
+        return pooledWorkerEngine.generateToken();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String tokenPoolConcurrent() throws Exception {
+        return tokenPoolEngine.nextToken();
+    }
+}
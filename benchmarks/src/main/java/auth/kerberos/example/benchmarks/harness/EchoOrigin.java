@@ -0,0 +1,161 @@
+package auth.kerberos.example.benchmarks.harness;
+
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local origin server: answers plain HTTP requests with a fixed-size body (keep-alive) and echoes WebSocket frames
+ * back after an upgrade, standing in for {@code ifconfig.me} and {@code ws.postman-echo.com}.
+ */
+final class EchoOrigin implements Closeable {
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final byte[] body;
+
+    EchoOrigin(int bodySize) throws IOException {
+        this.body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'x');
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress("127.0.0.1", 0));
+        this.connections = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "echo-origin");
+            t.setDaemon(true);
+            return t;
+        });
+        this.connections.execute(this::acceptLoop);
+    }
+
+    String httpUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/ip";
+    }
+
+    String wsUrl() {
+        return "ws://127.0.0.1:" + serverSocket.getLocalPort() + "/raw";
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> handle(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+            HttpHead request;
+            while ((request = HttpHead.read(in)) != null) {
+                HttpHead.skip(in, request.contentLength());
+                if ("websocket".equalsIgnoreCase(request.header("Upgrade"))) {
+                    upgrade(request, out);
+                    echoFrames(in, out);
+                    return;
+                }
+                out.write(("HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: text/plain\r\n"
+                        + "Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                out.write(body);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Connection dropped
+        }
+    }
+
+    private static void upgrade(HttpHead request, OutputStream out) throws IOException {
+        String accept;
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((request.header("Sec-WebSocket-Key") + WEBSOCKET_GUID)
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            accept = Base64.encodeBase64String(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    private static void echoFrames(InputStream in, OutputStream out) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        while (true) {
+            int first = data.readUnsignedByte();
+            int second = data.readUnsignedByte();
+            int opcode = first & 0x0F;
+            long length = second & 0x7F;
+            if (length == 126) {
+                length = data.readUnsignedShort();
+            } else if (length == 127) {
+                length = data.readLong();
+            }
+            byte[] mask = new byte[4];
+            if ((second & 0x80) != 0) {
+                data.readFully(mask);
+            }
+            byte[] payload = new byte[(int) length];
+            data.readFully(payload);
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= mask[i % 4];
+            }
+
+            if (opcode == OPCODE_CLOSE) {
+                writeFrame(out, OPCODE_CLOSE, payload);
+                return;
+            }
+            // Echo data frames as they came (continuations included), answer pings
+            writeFrame(out, opcode == OPCODE_PING ? OPCODE_PONG : opcode, payload, first & 0x80);
+        }
+    }
+
+    private static void writeFrame(OutputStream out, int opcode, byte[] payload) throws IOException {
+        writeFrame(out, opcode, payload, 0x80);
+    }
+
+    private static void writeFrame(OutputStream out, int opcode, byte[] payload, int fin) throws IOException {
+        out.write(fin | opcode);
+        if (payload.length < 126) {
+            out.write(payload.length);
+        } else if (payload.length <= 0xFFFF) {
+            out.write(126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        } else {
+            out.write(127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) ((long) payload.length >>> shift));
+            }
+        }
+        out.write(payload);
+        out.flush();
+    }
+}
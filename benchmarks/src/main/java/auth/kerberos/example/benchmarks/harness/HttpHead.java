@@ -0,0 +1,114 @@
+package auth.kerberos.example.benchmarks.harness;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal HTTP/1.1 message head (start line and headers) reader/writer for the harness servers.
+ */
+final class HttpHead {
+    final String startLine;
+    final List<String[]> headers;
+
+    private HttpHead(String startLine, List<String[]> headers) {
+        this.startLine = startLine;
+        this.headers = headers;
+    }
+
+    /**
+     * Reads a message head, or returns null if the stream ended before it started.
+     */
+    static HttpHead read(InputStream in) throws IOException {
+        String startLine = readLine(in);
+        if (startLine == null || startLine.isEmpty()) {
+            return null;
+        }
+        List<String[]> headers = new ArrayList<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.add(new String[]{line.substring(0, colon).trim(), line.substring(colon + 1).trim()});
+            }
+        }
+        return new HttpHead(startLine, headers);
+    }
+
+    String header(String name) {
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                return header[1];
+            }
+        }
+        return null;
+    }
+
+    long contentLength() {
+        String value = header("Content-Length");
+        return value != null ? Long.parseLong(value) : 0;
+    }
+
+    /**
+     * Writes this head with the given start line, dropping the excluded headers and appending the extra ones.
+     */
+    void writeTo(OutputStream out, String startLine, List<String> excluded, String... extra) throws IOException {
+        StringBuilder sb = new StringBuilder(startLine).append("\r\n");
+        for (String[] header : headers) {
+            if (!excluded.contains(header[0].toLowerCase())) {
+                sb.append(header[0]).append(": ").append(header[1]).append("\r\n");
+            }
+        }
+        for (String header : extra) {
+            sb.append(header).append("\r\n");
+        }
+        sb.append("\r\n");
+        out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[8192];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("Unexpected end of stream");
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    static void skip(InputStream in, long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("Unexpected end of stream");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = line.size();
+                byte[] bytes = line.toByteArray();
+                return new String(bytes, 0, length > 0 && bytes[length - 1] == '\r' ? length - 1 : length,
+                        StandardCharsets.ISO_8859_1);
+            }
+            line.write(b);
+        }
+        return line.size() > 0 ? line.toString("ISO-8859-1") : null;
+    }
+}
@@ -0,0 +1,402 @@
+package auth.kerberos.example.benchmarks.harness;
+
+import auth.kerberos.example.apachehc4async.KerberosProxyAsyncClient;
+import auth.kerberos.example.benchmarks.EmbeddedKdc;
+import auth.kerberos.example.commons.io.ResponseConsumer;
+import auth.kerberos.example.commons.io.ResponseConsumers;
+import auth.kerberos.example.commons.metrics.AuthMetrics;
+import auth.kerberos.example.commons.metrics.SimpleAuthMetricsRegistry;
+import auth.kerberos.example.commons.proxy.ProxyEndpoint;
+import auth.kerberos.example.commons.proxy.ProxyPool;
+import auth.kerberos.example.commons.security.GssWorkerPool;
+import auth.kerberos.example.commons.security.KerberosCredentialManager;
+import auth.kerberos.example.commons.security.SpnegoEngineRegistry;
+import auth.kerberos.example.okhttp3.AuthTraceEventListener;
+import auth.kerberos.example.okhttp3.ProxiedClientFactory;
+import auth.kerberos.example.okhttp3.transport.ws.InboundHandler;
+import auth.kerberos.example.okhttp3.transport.ws.InboundMessagePipeline;
+import auth.kerberos.example.okhttp3.transport.ws.WebSocketPoolConfig;
+import auth.kerberos.example.okhttp3.transport.ws.WebSocketSessionPool;
+import okhttp3.*;
+import org.HdrHistogram.Histogram;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Offline end-to-end load harness.
+ * <p>
+ * Boots an embedded KDC, a local Negotiate-authenticating proxy and a local HTTP + WebSocket echo origin, then drives
+ * the client flavors through the proxy with a closed loop of concurrent workers and reports throughput, errors and
+ * latency percentiles per flavor.
+ * <p>
+ * Options (key=value): concurrency (32), duration seconds (10), warmup seconds (2), body-size bytes (64) and
+ * flavors, a comma separated list of okhttp3, apachehc4, apachehc4async, okhttp3-ws and okhttp3-ws-pool (all by
+ * default). ws-sessions (4) and ws-batch (16) size the okhttp3-ws-pool socket pool and its per-wake-up message batching,
+ * ws-consumers (2) its inbound pipeline threads. trace-slow-millis prints the per-call auth timeline of okhttp3 calls
+ * slower than that (off by default). proxies (1) starts that many local proxies and balances the okhttp3, apachehc4
+ * and apachehc4async flavors over them. login (password) picks the client login mode: password, keytab or
+ * derived_keys.
+ */
+public final class LoadHarness {
+    private static final String PROXY_HOST = "localhost";
+    private static final long HIGHEST_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final ResponseConsumer DISCARD = ResponseConsumers.discard();
+
+    private LoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "32"));
+        int durationSeconds = Integer.parseInt(options.getOrDefault("duration", "10"));
+        int warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "2"));
+        int bodySize = Integer.parseInt(options.getOrDefault("body-size", "64"));
+        WebSocketPoolConfig poolConfig = new WebSocketPoolConfig()
+                .setSessions(Integer.parseInt(options.getOrDefault("ws-sessions", "4")))
+                .setBatchMaxMessages(Integer.parseInt(options.getOrDefault("ws-batch", "16")));
+        int inboundConsumers = Integer.parseInt(options.getOrDefault("ws-consumers", "2"));
+        long traceSlowMillis = Long.parseLong(options.getOrDefault("trace-slow-millis", "-1"));
+        int proxyCount = Integer.parseInt(options.getOrDefault("proxies", "1"));
+        KerberosCredentialManager.LoginMode loginMode = KerberosCredentialManager.LoginMode.valueOf(
+                options.getOrDefault("login", "password").toUpperCase(Locale.ROOT));
+        List<String> flavors = Arrays.asList(options.getOrDefault("flavors", "okhttp3,apachehc4,apachehc4async,okhttp3-ws,okhttp3-ws-pool").split(","));
+
+        SimpleAuthMetricsRegistry metrics = new SimpleAuthMetricsRegistry();
+        AuthMetrics.setRegistry(metrics);
+
+        try (EmbeddedKdc kdc = new EmbeddedKdc(PROXY_HOST)) {
+            kdc.configureJvm();
+            try (EchoOrigin origin = new EchoOrigin(bodySize);
+                 NegotiateProxy proxy = new NegotiateProxy(kdc.getServiceKeytab(),
+                         "HTTP/" + PROXY_HOST + "@" + EmbeddedKdc.REALM);
+                 KerberosCredentialManager credentialManager = KerberosCredentialManager.create(loginMode,
+                         EmbeddedKdc.USER + "@" + EmbeddedKdc.REALM, EmbeddedKdc.PASSWORD.toCharArray(),
+                         kdc.getClientKeytab().getPath());
+                 SpnegoEngineRegistry engineRegistry = new SpnegoEngineRegistry()) {
+                credentialManager.login();
+                List<NegotiateProxy> extraProxies = new ArrayList<>();
+                List<ProxyEndpoint> endpoints = new ArrayList<>();
+                endpoints.add(new ProxyEndpoint(PROXY_HOST, proxy.getPort()));
+                for (int i = 1; i < proxyCount; i++) {
+                    NegotiateProxy extra = new NegotiateProxy(kdc.getServiceKeytab(),
+                            "HTTP/" + PROXY_HOST + "@" + EmbeddedKdc.REALM);
+                    extraProxies.add(extra);
+                    endpoints.add(new ProxyEndpoint(PROXY_HOST, extra.getPort()));
+                }
+                ProxyPool proxyPool = new ProxyPool(endpoints);
+                Driver driver = new Driver(concurrency, warmupSeconds, durationSeconds);
+
+                System.out.printf("Driving %s: concurrency=%d warmup=%ds duration=%ds body=%dB%n",
+                        flavors, concurrency, warmupSeconds, durationSeconds, bodySize);
+                for (String flavor : flavors) {
+                    switch (flavor.trim()) {
+                        case "okhttp3":
+                            System.out.println(runOkHttp(driver, origin, proxyPool, credentialManager, engineRegistry, traceSlowMillis));
+                            break;
+                        case "apachehc4":
+                            System.out.println(runApache(driver, origin, proxyPool, credentialManager, engineRegistry));
+                            break;
+                        case "apachehc4async":
+                            System.out.println(runApacheAsync(driver, origin, proxyPool, credentialManager, engineRegistry));
+                            break;
+                        case "okhttp3-ws":
+                            System.out.println(runWebSocket(driver, origin, proxy, credentialManager, engineRegistry));
+                            break;
+                        case "okhttp3-ws-pool":
+                            System.out.println(runWebSocketPool(driver, origin, proxy, credentialManager, engineRegistry, poolConfig, inboundConsumers));
+                            break;
+                        default:
+                            System.out.println("Unknown flavor " + flavor);
+                    }
+                }
+                System.out.println("proxy: " + proxy.stats());
+                for (NegotiateProxy extra : extraProxies) {
+                    System.out.println("proxy: " + extra.stats());
+                    extra.close();
+                }
+                if (proxyCount > 1) {
+                    System.out.print(proxyPool.stats());
+                }
+                System.out.print(metrics.report());
+            }
+        }
+    }
+
+    private static String runOkHttp(Driver driver,
+                                    EchoOrigin origin,
+                                    ProxyPool proxyPool,
+                                    KerberosCredentialManager credentialManager,
+                                    SpnegoEngineRegistry engineRegistry,
+                                    long traceSlowMillis) throws InterruptedException {
+        OkHttpClient.Builder builder = ProxiedClientFactory
+                .proxiedClientBuilder(proxyPool, credentialManager, engineRegistry, true, true)
+                .connectionPool(new ConnectionPool(driver.concurrency, 5, TimeUnit.MINUTES));
+        if (traceSlowMillis >= 0) {
+            new AuthTraceEventListener.Factory(traceSlowMillis, 0, System.out::println).install(builder);
+        }
+        OkHttpClient client = builder.build();
+        Request request = new Request.Builder().url(origin.httpUrl()).build();
+        try {
+            return driver.run("okhttp3", () -> () -> {
+                try (Response response = client.newCall(request).execute()) {
+                    if (!response.isSuccessful()) {
+                        throw new IOException("Unexpected code " + response.code());
+                    }
+                    DISCARD.consume(response.body().byteStream());
+                }
+            });
+        } finally {
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+    }
+
+    private static String runApache(Driver driver,
+                                    EchoOrigin origin,
+                                    ProxyPool proxyPool,
+                                    KerberosCredentialManager credentialManager,
+                                    SpnegoEngineRegistry engineRegistry) throws InterruptedException, IOException {
+        try (CloseableHttpClient client = auth.kerberos.example.apachehc4.Main
+                .createHttpClient(proxyPool, credentialManager, engineRegistry, driver.concurrency)) {
+            return driver.run("apachehc4", () -> {
+                HttpClientContext context = HttpClientContext.create();
+                return () -> {
+                    try (CloseableHttpResponse response = client.execute(new HttpGet(origin.httpUrl()), context)) {
+                        if (response.getStatusLine().getStatusCode() != 200) {
+                            throw new IOException("Unexpected status " + response.getStatusLine());
+                        }
+                        DISCARD.consume(response.getEntity().getContent());
+                    }
+                };
+            });
+        }
+    }
+
+    private static String runApacheAsync(Driver driver,
+                                         EchoOrigin origin,
+                                         ProxyPool proxyPool,
+                                         KerberosCredentialManager credentialManager,
+                                         SpnegoEngineRegistry engineRegistry) throws InterruptedException, IOException {
+        try (GssWorkerPool tokenWorkers = new GssWorkerPool();
+             KerberosProxyAsyncClient client = new KerberosProxyAsyncClient(
+                     proxyPool, credentialManager, engineRegistry, tokenWorkers, 2, driver.concurrency)) {
+            // Workers wait on their own call only, the client itself runs on its reactor and token threads
+            return driver.run("apachehc4async", () -> () -> {
+                HttpResponse response = client.execute(new HttpGet(origin.httpUrl())).get(10, TimeUnit.SECONDS);
+                if (response.getStatusLine().getStatusCode() != 200) {
+                    throw new IOException("Unexpected status " + response.getStatusLine());
+                }
+                DISCARD.consume(response.getEntity().getContent());
+            });
+        }
+    }
+
+    private static String runWebSocket(Driver driver,
+                                       EchoOrigin origin,
+                                       NegotiateProxy proxy,
+                                       KerberosCredentialManager credentialManager,
+                                       SpnegoEngineRegistry engineRegistry) throws InterruptedException {
+        OkHttpClient client = ProxiedClientFactory
+                .proxiedClientBuilder(PROXY_HOST, proxy.getPort(), credentialManager, engineRegistry, true, true)
+                .readTimeout(0, TimeUnit.MILLISECONDS)
+                .build();
+        Request request = new Request.Builder().url(origin.wsUrl()).build();
+        try {
+            return driver.run("okhttp3-ws", () -> {
+                EchoListener listener = new EchoListener();
+                WebSocket webSocket = client.newWebSocket(request, listener);
+                listener.awaitOpen();
+                AtomicLong sequence = new AtomicLong();
+                return new Operation() {
+                    @Override
+                    public void run() throws Exception {
+                        String message = "Salute no." + sequence.incrementAndGet();
+                        webSocket.send(message);
+                        if (listener.messages.poll(10, TimeUnit.SECONDS) == null) {
+                            throw new TimeoutException("No echo for " + message);
+                        }
+                    }
+
+                    @Override
+                    public void close() {
+                        webSocket.close(1000, null);
+                    }
+                };
+            });
+        } finally {
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+    }
+
+    private static String runWebSocketPool(Driver driver,
+                                           EchoOrigin origin,
+                                           NegotiateProxy proxy,
+                                           KerberosCredentialManager credentialManager,
+                                           SpnegoEngineRegistry engineRegistry,
+                                           WebSocketPoolConfig poolConfig,
+                                           int inboundConsumers) throws Exception {
+        OkHttpClient client = ProxiedClientFactory
+                .proxiedClientBuilder(PROXY_HOST, proxy.getPort(), credentialManager, engineRegistry, true, true)
+                .readTimeout(0, TimeUnit.MILLISECONDS)
+                .build();
+        Request request = new Request.Builder().url(origin.wsUrl()).build();
+        // Echoes of every socket go through the inbound pipeline, which completes the waiting worker by message text
+        Map<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+        InboundHandler handler = message -> {
+            CompletableFuture<Void> echo = pending.remove(message.text());
+            if (echo != null) {
+                echo.complete(null);
+            }
+        };
+        AtomicLong sequence = new AtomicLong();
+        try (InboundMessagePipeline inbound = new InboundMessagePipeline(handler, null, inboundConsumers,
+                InboundMessagePipeline.DEFAULT_CAPACITY, InboundMessagePipeline.DEFAULT_BATCH_SIZE,
+                InboundMessagePipeline.OverflowPolicy.BLOCK);
+             WebSocketSessionPool pool = new WebSocketSessionPool(client, request, inbound, poolConfig)) {
+            if (!pool.awaitOpen(30, TimeUnit.SECONDS)) {
+                throw new IOException("No pooled WebSocket opened");
+            }
+            String result = driver.run("okhttp3-ws-pool", () -> () -> {
+                String message = "Salute no." + sequence.incrementAndGet();
+                CompletableFuture<Void> echo = new CompletableFuture<>();
+                pending.put(message, echo);
+                pool.send(message);
+                try {
+                    echo.get(10, TimeUnit.SECONDS);
+                } finally {
+                    pending.remove(message);
+                }
+            });
+            return result + System.lineSeparator() + "ws pool: " + pool.stats()
+                    + System.lineSeparator() + inbound.stats().trim();
+        } finally {
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(kv[0], kv.length > 1 ? kv[1] : "true");
+        }
+        return options;
+    }
+
+    interface Operation extends AutoCloseable {
+        void run() throws Exception;
+
+        @Override
+        default void close() {
+        }
+    }
+
+    /**
+     * Closed-loop load driver: every worker owns an operation and runs it back to back until the deadline, recording
+     * latencies (after warm-up) into its own histogram, merged at the end.
+     */
+    private static final class Driver {
+        private final int concurrency;
+        private final long warmupNanos;
+        private final long durationNanos;
+
+        private Driver(int concurrency, int warmupSeconds, int durationSeconds) {
+            this.concurrency = concurrency;
+            this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+            this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        }
+
+        String run(String name, Callable<Operation> operations) throws InterruptedException {
+            ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+            AtomicLong errors = new AtomicLong();
+            long measureFrom = System.nanoTime() + warmupNanos;
+            long end = measureFrom + durationNanos;
+
+            List<Future<Histogram>> results = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                results.add(workers.submit(() -> {
+                    Histogram histogram = new Histogram(HIGHEST_LATENCY_NANOS, 3);
+                    try (Operation operation = operations.call()) {
+                        long start;
+                        while ((start = System.nanoTime()) < end) {
+                            try {
+                                operation.run();
+                                if (start >= measureFrom) {
+                                    histogram.recordValue(Math.min(System.nanoTime() - start, HIGHEST_LATENCY_NANOS));
+                                }
+                            } catch (Exception e) {
+                                if (start >= measureFrom) {
+                                    errors.incrementAndGet();
+                                }
+                            }
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                    return histogram;
+                }));
+            }
+
+            Histogram merged = new Histogram(HIGHEST_LATENCY_NANOS, 3);
+            for (Future<Histogram> result : results) {
+                try {
+                    merged.add(result.get());
+                } catch (ExecutionException e) {
+                    errors.incrementAndGet();
+                }
+            }
+            workers.shutdown();
+
+            double seconds = durationNanos / 1e9;
+            return String.format("%-11s ops=%d throughput=%.1f/s errors=%d latency ms: p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f",
+                    name,
+                    merged.getTotalCount(),
+                    merged.getTotalCount() / seconds,
+                    errors.get(),
+                    merged.getValueAtPercentile(50) / 1e6,
+                    merged.getValueAtPercentile(90) / 1e6,
+                    merged.getValueAtPercentile(99) / 1e6,
+                    merged.getValueAtPercentile(99.9) / 1e6,
+                    merged.getMaxValue() / 1e6);
+        }
+    }
+
+    private static final class EchoListener extends WebSocketListener {
+        private final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        private final CountDownLatch opened = new CountDownLatch(1);
+        private volatile Throwable failure;
+
+        @Override
+        public void onOpen(@NotNull WebSocket webSocket, @NotNull Response response) {
+            opened.countDown();
+        }
+
+        @Override
+        public void onMessage(@NotNull WebSocket webSocket, @NotNull String text) {
+            messages.add(text);
+        }
+
+        @Override
+        public void onFailure(@NotNull WebSocket webSocket, @NotNull Throwable t, Response response) {
+            failure = t;
+            opened.countDown();
+        }
+
+        void awaitOpen() throws Exception {
+            if (!opened.await(30, TimeUnit.SECONDS) || failure != null) {
+                throw new IOException("WebSocket did not open", failure);
+            }
+        }
+    }
+}
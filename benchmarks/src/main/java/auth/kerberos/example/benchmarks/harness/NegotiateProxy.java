@@ -0,0 +1,277 @@
+package auth.kerberos.example.benchmarks.harness;
+
+import org.apache.commons.codec.binary.Base64;
+import org.ietf.jgss.*;
+
+import javax.security.auth.Subject;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginContext;
+import javax.security.auth.login.LoginException;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local HTTP proxy standing in for a Kerberos-enabled Squid.
+ * <p>
+ * Unauthenticated requests get a 407 {@code Negotiate} challenge; tokens are validated with JGSS acceptor credentials
+ * logged in from the service keytab. Like Squid, authentication is connection-oriented: once a keep-alive connection
+ * is authenticated, later requests on it are forwarded without a token. The mutual-auth reply token is returned in
+ * {@code Proxy-Authenticate}. Supports plain forwarding (absolute-URI requests, including WebSocket upgrades) and
+ * CONNECT tunnels.
+ */
+final class NegotiateProxy implements Closeable {
+    private static final List<String> HOP_BY_HOP = Arrays.asList("proxy-authorization", "proxy-connection");
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final Subject acceptorSubject;
+    private final GSSCredential acceptorCredential;
+    private final Base64 base64codec = new Base64(0);
+    private final AtomicLong challenges = new AtomicLong();
+    private final AtomicLong acceptedTokens = new AtomicLong();
+    private final AtomicLong rejectedTokens = new AtomicLong();
+
+    NegotiateProxy(File keytab, String servicePrincipal) throws IOException, LoginException, GSSException {
+        this.acceptorSubject = login(keytab, servicePrincipal);
+        this.acceptorCredential = doAs(() -> GSSManager.getInstance().createCredential(
+                null,
+                GSSCredential.INDEFINITE_LIFETIME,
+                new Oid[]{new Oid("1.3.6.1.5.5.2"), new Oid("1.2.840.113554.1.2.2")},
+                GSSCredential.ACCEPT_ONLY));
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress("localhost", 0));
+        this.connections = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "negotiate-proxy");
+            t.setDaemon(true);
+            return t;
+        });
+        this.connections.execute(this::acceptLoop);
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    String stats() {
+        return String.format("challenges=%d accepted=%d rejected=%d",
+                challenges.get(), acceptedTokens.get(), rejectedTokens.get());
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                connections.execute(() -> handle(client));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Socket client) {
+        Socket upstream = null;
+        String upstreamAuthority = null;
+        try {
+            client.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            OutputStream out = new BufferedOutputStream(client.getOutputStream());
+            boolean authenticated = false;
+
+            HttpHead request;
+            while ((request = HttpHead.read(in)) != null) {
+                String replyToken = null;
+                if (!authenticated) {
+                    String authorization = request.header("Proxy-Authorization");
+                    if (authorization == null || !authorization.regionMatches(true, 0, "Negotiate ", 0, 10)) {
+                        challenges.incrementAndGet();
+                        HttpHead.skip(in, request.contentLength());
+                        writeChallenge(out);
+                        continue;
+                    }
+                    try {
+                        replyToken = accept(authorization.substring(10).trim());
+                        authenticated = true;
+                        acceptedTokens.incrementAndGet();
+                    } catch (GSSException e) {
+                        rejectedTokens.incrementAndGet();
+                        HttpHead.skip(in, request.contentLength());
+                        writeChallenge(out);
+                        continue;
+                    }
+                }
+                String mutualAuth = "Proxy-Authenticate: Negotiate" + (replyToken != null ? " " + replyToken : "");
+
+                String[] requestLine = request.startLine.split(" ");
+                if ("CONNECT".equalsIgnoreCase(requestLine[0])) {
+                    String[] hostPort = requestLine[1].split(":");
+                    Socket tunnel = new Socket(hostPort[0], Integer.parseInt(hostPort[1]));
+                    out.write(("HTTP/1.1 200 Connection established\r\n" + mutualAuth + "\r\n\r\n")
+                            .getBytes(StandardCharsets.ISO_8859_1));
+                    out.flush();
+                    pipe(client, in, tunnel);
+                    return;
+                }
+
+                URI uri = URI.create(requestLine[1]);
+                String authority = uri.getHost() + ":" + (uri.getPort() > 0 ? uri.getPort() : 80);
+                if (upstream == null || !authority.equals(upstreamAuthority)) {
+                    if (upstream != null) {
+                        upstream.close();
+                    }
+                    upstream = new Socket(uri.getHost(), uri.getPort() > 0 ? uri.getPort() : 80);
+                    upstream.setTcpNoDelay(true);
+                    upstreamAuthority = authority;
+                }
+                String path = uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+                if (uri.getRawQuery() != null) {
+                    path += "?" + uri.getRawQuery();
+                }
+
+                InputStream upstreamIn = new BufferedInputStream(upstream.getInputStream());
+                OutputStream upstreamOut = new BufferedOutputStream(upstream.getOutputStream());
+                request.writeTo(upstreamOut, requestLine[0] + " " + path + " " + requestLine[2], HOP_BY_HOP);
+                HttpHead.copy(in, upstreamOut, request.contentLength());
+                upstreamOut.flush();
+
+                HttpHead response = HttpHead.read(upstreamIn);
+                if (response == null) {
+                    return;
+                }
+                response.writeTo(out, response.startLine, HOP_BY_HOP, mutualAuth);
+                if (response.startLine.contains(" 101 ")) {
+                    out.flush();
+                    pipe(client, in, upstream, upstreamIn);
+                    return;
+                }
+                HttpHead.copy(upstreamIn, out, response.contentLength());
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Connection dropped, nothing to report back
+        } finally {
+            closeQuietly(client);
+            closeQuietly(upstream);
+        }
+    }
+
+    private String accept(String token) throws GSSException {
+        final byte[] input = base64codec.decode(token);
+        byte[] reply = doAs(() -> {
+            GSSContext context = GSSManager.getInstance().createContext(acceptorCredential);
+            try {
+                byte[] output = context.acceptSecContext(input, 0, input.length);
+                if (!context.isEstablished()) {
+                    throw new GSSException(GSSException.DEFECTIVE_TOKEN);
+                }
+                return output;
+            } finally {
+                context.dispose();
+            }
+        });
+        return reply != null ? new String(base64codec.encode(reply)) : null;
+    }
+
+    private static void writeChallenge(OutputStream out) throws IOException {
+        out.write(("HTTP/1.1 407 Proxy Authentication Required\r\n"
+                + "Proxy-Authenticate: Negotiate\r\n"
+                + "Content-Length: 0\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    private void pipe(Socket client, InputStream clientIn, Socket upstream) throws IOException {
+        pipe(client, clientIn, upstream, upstream.getInputStream());
+    }
+
+    private void pipe(Socket client, InputStream clientIn, Socket upstream, InputStream upstreamIn) throws IOException {
+        OutputStream upstreamOut = upstream.getOutputStream();
+        connections.execute(() -> {
+            try {
+                transfer(upstreamIn, client.getOutputStream());
+            } catch (IOException ignored) {
+                // Either side closed
+            } finally {
+                closeQuietly(client);
+                closeQuietly(upstream);
+            }
+        });
+        try {
+            transfer(clientIn, upstreamOut);
+        } finally {
+            closeQuietly(client);
+            closeQuietly(upstream);
+        }
+    }
+
+    private static void transfer(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            out.flush();
+        }
+    }
+
+    private <T> T doAs(PrivilegedExceptionAction<T> action) throws GSSException {
+        try {
+            return Subject.doAs(acceptorSubject, action);
+        } catch (PrivilegedActionException e) {
+            if (e.getException() instanceof GSSException) {
+                throw (GSSException) e.getException();
+            }
+            throw new RuntimeException(e.getException());
+        }
+    }
+
+    private static Subject login(File keytab, String principal) throws LoginException {
+        final Map<String, String> options = new HashMap<>();
+        options.put("useKeyTab", "true");
+        options.put("keyTab", keytab.getAbsolutePath());
+        options.put("principal", principal);
+        options.put("storeKey", "true");
+        options.put("doNotPrompt", "true");
+        options.put("isInitiator", "false");
+        Configuration configuration = new Configuration() {
+            @Override
+            public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+                return new AppConfigurationEntry[]{
+                        new AppConfigurationEntry("com.sun.security.auth.module.Krb5LoginModule",
+                                AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options)
+                };
+            }
+        };
+        LoginContext loginContext = new LoginContext("negotiate-proxy", new Subject(), null, configuration);
+        loginContext.login();
+        return loginContext.getSubject();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Best effort
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package auth.kerberos.example.jdkhttp;
+
+import auth.kerberos.example.commons.io.AsyncResultLogger;
+import auth.kerberos.example.commons.io.ResponseConsumer;
+import auth.kerberos.example.commons.io.ResponseConsumers;
+import auth.kerberos.example.commons.metrics.AuthMetrics;
+import auth.kerberos.example.commons.metrics.SimpleAuthMetricsRegistry;
+import auth.kerberos.example.commons.proxy.ProxyPool;
+import auth.kerberos.example.commons.security.AuthFailurePolicy;
+import auth.kerberos.example.commons.security.GssNameCache;
+import auth.kerberos.example.commons.security.GssWorkerPool;
+import auth.kerberos.example.commons.security.KerberosCallBackHandler;
+import auth.kerberos.example.commons.security.KerberosCredentialManager;
+import auth.kerberos.example.commons.security.SpnegoEngineConfig;
+import auth.kerberos.example.commons.security.SpnegoEngineRegistry;
+
+import javax.security.auth.login.LoginException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.Security;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JDK {@link java.net.http.HttpClient} flavor, with SPNEGO proxy authentication from {@link SpnegoProxyHttpClient}.
+ * <p>
+ * The load driver starts one virtual thread per request, up to MAX_IN_FLIGHT at once, and reports the throughput and
+ * the heap held per in-flight request (peak heap over the idle baseline, divided by the peak in-flight count) to compare
+ * with the thread and callback based flavors.
+ * <p>
+ * Notes:
+ * - You need to have a valid /etc/krb5.conf in place
+ * - Set proper username/password in USER and PASSWORD constants (or KEYTAB_PATH, see LOGIN_MODE), also PROXIES
+ * - Requires JDK 21, see jdkhttp/pom.xml
+ *
+ * @see KerberosCallBackHandler
+ */
+public class Main {
+    public static final int REQUEST_RETRIES = 10_000;
+    private static final String HTTP_HOST = "http://ifconfig.me";
+    private static final String USER = "user";
+    private static final String PASSWORD = "pass";
+    // Login mode: PASSWORD answers each KDC login from USER/PASSWORD through the callback handler, deriving the keys every
+    // time. KEYTAB reads the keys from KEYTAB_PATH, DERIVED_KEYS derives them from PASSWORD once at startup
+    private static final KerberosCredentialManager.LoginMode LOGIN_MODE = KerberosCredentialManager.LoginMode.DERIVED_KEYS;
+    private static final String KEYTAB_PATH = "/etc/krb5.keytab";
+    // Comma separated host:port list, balanced by in-flight requests and latency with failing proxies ejected
+    private static final String PROXIES = "proxy.com:3128";
+    // Set to false when the proxy SPN is known to be HTTP/<proxy host>, skipping DNS lookups entirely. Canonical names are
+    // otherwise cached and refreshed in the background
+    private static final boolean CANONICALIZE_PROXY_HOST = true;
+    private static final long PROXY_NAME_TTL_MILLIS = 300_000;
+    // Virtual threads (one per request) running at once
+    private static final int MAX_IN_FLIGHT = 1024;
+    // Platform threads generating tokens, so JGSS monitors never pin the virtual threads' carriers
+    private static final int GSS_WORKER_THREADS = 4;
+    private static final int GSS_WORKER_QUEUE = 2048;
+    // Outage protection: after AUTH_FAILURE_THRESHOLD failures in a row, logins and tokens fail fast while the KDC is
+    // probed with jittered exponential backoff. Token generation gives up after TOKEN_DEADLINE_MILLIS
+    private static final int AUTH_FAILURE_THRESHOLD = 3;
+    private static final long TOKEN_DEADLINE_MILLIS = 5_000;
+    private static final long CONNECT_TIMEOUT_MILLIS = 10_000;
+    // Bodies are streamed, only their first bytes are kept for the result line
+    private static final ResponseConsumer RESPONSE_CONSUMER = ResponseConsumers.preview(256);
+    // Heap sampling period while requests run
+    private static final long HEAP_SAMPLE_MILLIS = 100;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.setProperty("java.security.krb5.conf", "/etc/krb5.conf");
+        // Credentials are kept in the KerberosCredentialManager subject, so JGSS must only look for (and store) tickets there
+        // See https://docs.oracle.com/javase/7/docs/technotes/guides/security/jgss/tutorials/BasicClientServer.html
+        System.setProperty("javax.security.auth.useSubjectCredsOnly", "true");
+
+        // Set login credentials for CallbackHandler using custom security properties, only needed for password logins
+        if (LOGIN_MODE == KerberosCredentialManager.LoginMode.PASSWORD) {
+            Security.setProperty("java.security.krb5.login.user", USER);
+            Security.setProperty("java.security.krb5.login.password", PASSWORD);
+        }
+
+        // Setting default callback handler to avoid prompting for password on command line
+        // check https://github.com/frohoff/jdk8u-dev-jdk/blob/master/src/share/classes/sun/security/jgss/GSSUtil.java#L241
+        Security.setProperty("auth.login.defaultCallbackHandler", "auth.kerberos.example.commons.security.KerberosCallBackHandler");
+
+        // Metrics are resolved when components are built, so the registry goes in first
+        SimpleAuthMetricsRegistry metrics = new SimpleAuthMetricsRegistry();
+        AuthMetrics.setRegistry(metrics);
+
+        // Log in once up front, tickets are renewed in the background from here on
+        KerberosCredentialManager credentialManager;
+        try {
+            credentialManager = KerberosCredentialManager.create(LOGIN_MODE, USER, PASSWORD.toCharArray(), KEYTAB_PATH);
+        } catch (IOException e) {
+            throw new IllegalStateException("Kerberos login failed", e);
+        }
+        // Closed whatever happens below, which also wipes derived keys from the disk
+        try {
+            try {
+                credentialManager.login();
+            } catch (LoginException e) {
+                throw new IllegalStateException("Kerberos login failed", e);
+            }
+            AuthFailurePolicy failurePolicy = new AuthFailurePolicy()
+                    .setFailureThreshold(AUTH_FAILURE_THRESHOLD)
+                    .setTokenDeadlineMillis(TOKEN_DEADLINE_MILLIS);
+            credentialManager.setLoginFailurePolicy(failurePolicy);
+            GssWorkerPool gssWorkers = new GssWorkerPool(GSS_WORKER_THREADS, GSS_WORKER_QUEUE);
+            SpnegoEngineRegistry engineRegistry = new SpnegoEngineRegistry(new SpnegoEngineConfig()
+                    .setWorkerPool(gssWorkers)
+                    .setNameCache(new GssNameCache(PROXY_NAME_TTL_MILLIS, CANONICALIZE_PROXY_HOST, true))
+                    .setFailurePolicy(failurePolicy));
+            AuthMetrics.registry().gauge(AuthMetrics.ENGINE_REGISTRY_SIZE, engineRegistry::size);
+
+            AsyncResultLogger resultLogger = new AsyncResultLogger();
+            ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+            SpnegoProxyHttpClient client = new SpnegoProxyHttpClient(ProxyPool.parse(PROXIES), credentialManager,
+                    engineRegistry, virtualThreads, Duration.ofMillis(CONNECT_TIMEOUT_MILLIS));
+            HttpRequest request = HttpRequest.newBuilder(URI.create(HTTP_HOST)).GET().build();
+
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            System.gc();
+            long baselineHeap = memory.getHeapMemoryUsage().getUsed();
+            AtomicInteger inFlight = new AtomicInteger();
+            AtomicInteger peakInFlight = new AtomicInteger();
+            AtomicLong peakHeap = new AtomicLong(baselineHeap);
+            Thread sampler = Thread.ofPlatform().daemon().name("heap-sampler").start(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(HEAP_SAMPLE_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+
+            System.out.println("********Performing HTTP requests on virtual threads");
+            Semaphore admission = new Semaphore(MAX_IN_FLIGHT);
+            long start = System.nanoTime();
+            for (int i = 0; i < REQUEST_RETRIES; i++) {
+                admission.acquire();
+                virtualThreads.execute(() -> {
+                    peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    try {
+                        HttpResponse<InputStream> response =
+                                client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                        String result;
+                        try (InputStream body = response.body()) {
+                            result = RESPONSE_CONSUMER.consume(body);
+                        }
+                        resultLogger.log("STATUS >> %d RESULT >> %s", response.statusCode(), result);
+                    } catch (IOException | RuntimeException e) {
+                        resultLogger.log("ERROR EXECUTING REQUEST: %s", e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        inFlight.decrementAndGet();
+                        admission.release();
+                    }
+                });
+            }
+            // All slots back means all requests are done. The clients run on the same executor, shut down only then
+            admission.acquire(MAX_IN_FLIGHT);
+            long elapsedNanos = System.nanoTime() - start;
+            virtualThreads.shutdown();
+            sampler.interrupt();
+
+            resultLogger.close();
+            System.out.printf(
+                    "********%d requests in %dms (%.1f/s), peak in-flight %d, ~%d KB heap per in-flight request%n",
+                    REQUEST_RETRIES, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    REQUEST_RETRIES / (elapsedNanos / 1e9), peakInFlight.get(),
+                    (peakHeap.get() - baselineHeap) / Math.max(1, peakInFlight.get()) / 1024);
+            System.out.println("********AUTH METRICS");
+            System.out.print(metrics.report());
+            engineRegistry.close();
+            gssWorkers.close();
+        } finally {
+            credentialManager.close();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package auth.kerberos.example.jdkhttp;
+
+import auth.kerberos.example.commons.metrics.AuthMetrics;
+import auth.kerberos.example.commons.proxy.ProxyEndpoint;
+import auth.kerberos.example.commons.proxy.ProxyPool;
+import auth.kerberos.example.commons.security.KerberosCredentialManager;
+import auth.kerberos.example.commons.security.SpnegoEngine;
+import auth.kerberos.example.commons.security.SpnegoEngineRegistry;
+import org.ietf.jgss.GSSException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * SPNEGO proxy authentication for {@link HttpClient}, which only supports Basic and Digest through its
+ * {@link java.net.Authenticator}.
+ * <p>
+ * Requests are sent as is, a {@code 407 Negotiate} answer is retried once with a token from the shared
+ * {@link SpnegoEngine} of that proxy. The JDK client forwards the {@code Proxy-Authorization} header on plain proxied
+ * requests and on the CONNECT of https tunnels, and keeps authenticated connections pooled, so only new connections
+ * get challenged.
+ * <p>
+ * Every {@link ProxyPool} entry gets its own {@link HttpClient} (the JDK client does not tell which proxy a response came
+ * through), calls pick one and report latency and failures back to the pool.
+ * <p>
+ * Notes:
+ * - {@link #send} blocks, it is meant to be called from virtual threads
+ * - Token generation synchronizes inside JGSS, which pins virtual threads: give the engines a GssWorkerPool so it runs
+ *   on platform threads while the virtual thread is parked
+ * - A token that cannot be generated fails the call with an IOException, reported to the pool as cancelled
+ */
+public class SpnegoProxyHttpClient {
+    private static final String NEGOTIATE = "Negotiate";
+
+    private final ProxyPool proxyPool;
+    private final Map<ProxyEndpoint, HttpClient> clients = new IdentityHashMap<>();
+    private final KerberosCredentialManager credentialManager;
+    private final SpnegoEngineRegistry engineRegistry;
+
+    /**
+     * @param executor executor of the clients' async work, e.g. a virtual thread per task executor
+     */
+    public SpnegoProxyHttpClient(ProxyPool proxyPool,
+                                 KerberosCredentialManager credentialManager,
+                                 SpnegoEngineRegistry engineRegistry,
+                                 Executor executor,
+                                 Duration connectTimeout) {
+        this.proxyPool = proxyPool;
+        this.credentialManager = credentialManager;
+        this.engineRegistry = engineRegistry;
+        for (ProxyEndpoint endpoint : proxyPool.endpoints()) {
+            clients.put(endpoint, HttpClient.newBuilder()
+                    .proxy(ProxySelector.of(InetSocketAddress.createUnresolved(endpoint.getHost(), endpoint.getPort())))
+                    .executor(executor)
+                    .connectTimeout(connectTimeout)
+                    .build());
+        }
+    }
+
+    /**
+     * Sends the request through the best proxy of the pool, authenticating on challenge.
+     */
+    public <T> HttpResponse<T> send(HttpRequest request,
+                                    HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        ProxyEndpoint endpoint = proxyPool.select();
+        HttpClient client = clients.get(endpoint);
+        proxyPool.started(endpoint);
+        long start = System.nanoTime();
+        boolean done = false;
+        try {
+            HttpResponse<T> response = client.send(request, bodyHandler);
+            if (isNegotiateChallenge(response)) {
+                String host = endpoint.getHost();
+                AuthMetrics.registry().counter(AuthMetrics.PROXY_CHALLENGES, host).increment();
+                discard(response);
+                String token;
+                try {
+                    token = token(host);
+                } catch (GSSException e) {
+                    // The proxy answered, the token could not be generated: not the proxy's fault
+                    proxyPool.cancelled(endpoint);
+                    done = true;
+                    throw new IOException("SPNEGO token generation failed for proxy " + host, e);
+                }
+                HttpRequest authenticated = HttpRequest.newBuilder(request, (name, value) -> true)
+                        .setHeader("Proxy-Authorization", NEGOTIATE + " " + token)
+                        .build();
+                response = client.send(authenticated, bodyHandler);
+                if (isNegotiateChallenge(response)) {
+                    // Challenged again after sending a token: the proxy rejected it, the 407 goes back to the caller
+                    // and the proxy is not credited with a success
+                    AuthMetrics.registry().counter(AuthMetrics.PROXY_GIVE_UPS, host).increment();
+                    proxyPool.failed(endpoint);
+                    done = true;
+                    return response;
+                }
+            }
+            proxyPool.succeeded(endpoint, System.nanoTime() - start);
+            done = true;
+            return response;
+        } catch (IOException e) {
+            if (!done) {
+                proxyPool.failed(endpoint);
+                done = true;
+            }
+            throw e;
+        } finally {
+            if (!done) {
+                // Interrupted: not the proxy's fault
+                proxyPool.cancelled(endpoint);
+            }
+        }
+    }
+
+    private String token(String host) throws GSSException {
+        String principal = credentialManager != null ? credentialManager.getPrincipalName() : "";
+        return engineRegistry.withEngine(
+                principal,
+                SpnegoEngine.DEFAULT_SERVICE_NAME,
+                host,
+                SpnegoEngine.GSS_SPNEGO_MECH_OID,
+                credentialManager,
+                SpnegoEngine::nextToken);
+    }
+
+    private static boolean isNegotiateChallenge(HttpResponse<?> response) {
+        if (response.statusCode() != 407) {
+            return false;
+        }
+        for (String challenge : response.headers().allValues("Proxy-Authenticate")) {
+            if (challenge.regionMatches(true, 0, NEGOTIATE, 0, NEGOTIATE.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drains a streaming body so the connection can be reused for the authenticated retry.
+     */
+    private static void discard(HttpResponse<?> response) throws IOException {
+        if (response.body() instanceof InputStream) {
+            try (InputStream body = (InputStream) response.body()) {
+                body.transferTo(OutputStream.nullOutputStream());
+            }
+        }
+    }
+}
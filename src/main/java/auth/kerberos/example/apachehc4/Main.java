@@ -1,31 +1,46 @@
 package auth.kerberos.example.apachehc4;
 
+import auth.kerberos.example.commons.io.AsyncResultLogger;
+import auth.kerberos.example.commons.io.ResponseConsumer;
+import auth.kerberos.example.commons.io.ResponseConsumers;
+import auth.kerberos.example.commons.metrics.AuthMetrics;
+import auth.kerberos.example.commons.metrics.SimpleAuthMetricsRegistry;
+import auth.kerberos.example.commons.proxy.ProxyPool;
+import auth.kerberos.example.commons.security.AuthFailurePolicy;
+import auth.kerberos.example.commons.security.GssNameCache;
+import auth.kerberos.example.commons.security.GssWorkerPool;
 import auth.kerberos.example.commons.security.KerberosCallBackHandler;
+import auth.kerberos.example.commons.security.KerberosCredentialManager;
+import auth.kerberos.example.commons.security.SpnegoEngineConfig;
+import auth.kerberos.example.commons.security.SpnegoEngineRegistry;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpHost;
-import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthSchemeProvider;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.Credentials;
 import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.AuthSchemes;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
-import org.apache.http.impl.auth.SPNegoSchemeFactory;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.execchain.ClientExecChain;
 
+import javax.security.auth.login.LoginException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.Principal;
 import java.security.Security;
-import java.sql.Time;
-import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * See "HttpClient set credentials for Kerberos authentication":
@@ -38,7 +53,7 @@ import java.time.Instant;
  * <p>
  * Notes:
  * - You need to have a valid /etc/krb5.conf in place
- * - Set proper username/password in USER and PASSWORD constants, also PROXY_HOST and PROXY_PORT
+ * - Set proper username/password in USER and PASSWORD constants (or KEYTAB_PATH, see LOGIN_MODE), also PROXIES
  *
  * @see KerberosCallBackHandler
  */
@@ -46,29 +61,83 @@ public class Main {
     public static final int REQUEST_RETRIES = 1000;
     private static final String USER = "user";
     private static final String PASSWORD = "pass";
-    private static final String PROXY_HOST = "proxy.com";
-    private static final int PROXY_PORT = 3128;
+    // Login mode: PASSWORD answers each KDC login from USER/PASSWORD through the callback handler, deriving the keys every
+    // time. KEYTAB reads the keys from KEYTAB_PATH, DERIVED_KEYS derives them from PASSWORD once at startup
+    private static final KerberosCredentialManager.LoginMode LOGIN_MODE = KerberosCredentialManager.LoginMode.DERIVED_KEYS;
+    private static final String KEYTAB_PATH = "/etc/krb5.keytab";
+    // Comma separated host:port list, balanced by in-flight requests and latency with failing proxies ejected
+    private static final String PROXIES = "proxy.com:3128";
+    // Set to false when the proxy SPN is known to be HTTP/<proxy host>, skipping DNS lookups entirely. Canonical names are
+    // otherwise cached and refreshed in the background
+    private static final boolean CANONICALIZE_PROXY_HOST = true;
+    private static final long PROXY_NAME_TTL_MILLIS = 300_000;
+    // Threads (and queued requests) available for SPNEGO token generation
+    private static final int GSS_WORKER_THREADS = 4;
+    private static final int GSS_WORKER_QUEUE = 2048;
+    // Outage protection: after AUTH_FAILURE_THRESHOLD failures in a row, logins and tokens fail fast while the KDC is
+    // probed with jittered exponential backoff. Token generation gives up after TOKEN_DEADLINE_MILLIS
+    private static final int AUTH_FAILURE_THRESHOLD = 3;
+    private static final long TOKEN_DEADLINE_MILLIS = 5_000;
+    // Load mode: concurrent workers sharing the client, and overall request rate (requests/second, 0 = unthrottled)
+    private static final int WORKER_THREADS = 8;
+    private static final int TARGET_RATE = 50;
+    // Bodies are streamed, only their first bytes are kept for the result line (see ResponseConsumers for discard,
+    // digest and file sinks)
+    private static final ResponseConsumer RESPONSE_CONSUMER = ResponseConsumers.preview(256);
+
+    /*
+     * HttpClientContext is not thread-safe, so each worker keeps its own. What gets reused is the pooled connections the
+     * proxy already authenticated: the per-worker proxy auth state lets connection-based SPNEGO skip re-authentication
+     * on them (Negotiate has no cacheable credentials, so there is no auth cache)
+     * */
+    private static final ThreadLocal<HttpClientContext> workerContext = ThreadLocal.withInitial(HttpClientContext::create);
+    private static final AtomicLong nextPermitNanos = new AtomicLong(System.nanoTime());
+
+    private static CloseableHttpClient httpClient;
+    private static AsyncResultLogger resultLogger;
 
     public static void callServer(String url) throws IOException {
-        HttpClient httpclient = getHttpClient();
-        try {
-            HttpUriRequest request = new HttpGet(url);
-            HttpResponse response = httpclient.execute(request);
+        HttpUriRequest request = new HttpGet(url);
+        try (CloseableHttpResponse response = httpClient.execute(request, workerContext.get())) {
             HttpEntity entity = response.getEntity();
-
-            System.out.println("----------------------------------------");
-            System.out.println("STATUS >> " + response.getStatusLine());
+            String result = "";
             if (entity != null) {
-                System.out.println("RESULT >> " + EntityUtils.toString(entity));
+                // Reading the content to its end hands the connection back to the pool for reuse
+                try (InputStream body = entity.getContent()) {
+                    result = RESPONSE_CONSUMER.consume(body);
+                }
             }
-            System.out.println("----------------------------------------");
-            EntityUtils.consume(entity);
-        } finally {
-            httpclient.getConnectionManager().shutdown();
+            resultLogger.log("STATUS >> %s RESULT >> %s", response.getStatusLine(), result);
         }
     }
 
-    private static HttpClient getHttpClient() {
+    private static CloseableHttpClient getHttpClient(KerberosCredentialManager credentialManager,
+                                                     SpnegoEngineRegistry engineRegistry) {
+        return createHttpClient(ProxyPool.parse(PROXIES), credentialManager, engineRegistry, WORKER_THREADS);
+    }
+
+    /**
+     * Pooled client routed through the Kerberos proxy, authenticating with SPNEGO.
+     */
+    public static CloseableHttpClient createHttpClient(String proxyHost,
+                                                       int proxyPort,
+                                                       KerberosCredentialManager credentialManager,
+                                                       SpnegoEngineRegistry engineRegistry,
+                                                       int maxConnections) {
+        return createHttpClient(ProxyPool.of(proxyHost, proxyPort), credentialManager, engineRegistry, maxConnections);
+    }
+
+    /**
+     * Pooled client balancing requests over the given Kerberos proxies, authenticating with SPNEGO against the proxy
+     * each request is routed through. Tokens come from the shared {@link SpnegoEngineRegistry} engines, as in the
+     * okhttp3 flavor, so no calling subject is needed.
+     *
+     * @param maxConnections connections per proxy
+     */
+    public static CloseableHttpClient createHttpClient(ProxyPool proxyPool,
+                                                       KerberosCredentialManager credentialManager,
+                                                       SpnegoEngineRegistry engineRegistry,
+                                                       int maxConnections) {
         Credentials noop_creds = new Credentials() {
             public String getPassword() {
                 return null;
@@ -83,11 +152,23 @@ public class Main {
         credsProvider.setCredentials(new AuthScope(null, -1, null), noop_creds);
         Registry<AuthSchemeProvider> authSchemeRegistry = RegistryBuilder
                 .<AuthSchemeProvider>create()
-                .register(AuthSchemes.SPNEGO, new SPNegoSchemeFactory(true))
+                .register(AuthSchemes.SPNEGO, new SpnegoEngineSchemeProvider(credentialManager, engineRegistry))
                 .build();
-        CloseableHttpClient httpclient = HttpClients.custom()
-                // Set our proxy - httpclient doesn't use ProxySelector
-                .setRoutePlanner(new DefaultProxyRoutePlanner(new HttpHost(PROXY_HOST, PROXY_PORT)))
+        // Every origin is reached through one route per proxy, each route gets the full connection budget
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections * proxyPool.endpoints().size());
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        // Set our proxies - httpclient doesn't use ProxySelector
+        final ProxyPoolRoutePlanner routePlanner = new ProxyPoolRoutePlanner(proxyPool);
+        CloseableHttpClient httpclient = new HttpClientBuilder() {
+            @Override
+            protected ClientExecChain decorateProtocolExec(ClientExecChain protocolExec) {
+                return routePlanner.decorate(protocolExec);
+            }
+        }
+                .setConnectionManager(connectionManager)
+                .setRoutePlanner(routePlanner)
                 .setDefaultAuthSchemeRegistry(authSchemeRegistry)
                 .setDefaultCredentialsProvider(credsProvider).build();
 
@@ -96,16 +177,18 @@ public class Main {
 
     public static void main(String[] args) throws IOException, InterruptedException {
         System.setProperty("java.security.krb5.conf", "/etc/krb5.conf");
-        // Bypass JAAS requirement and directly authenticate via CallbackHandler
+        // Credentials are kept in the KerberosCredentialManager subject, so JGSS must only look for (and store) tickets there
         // See https://docs.oracle.com/javase/7/docs/technotes/guides/security/jgss/tutorials/BasicClientServer.html
-        System.setProperty("javax.security.auth.useSubjectCredsOnly", "false");
+        System.setProperty("javax.security.auth.useSubjectCredsOnly", "true");
 
         //System.setProperty("sun.security.krb5.debug", "true");
         System.setProperty("sun.security.jgss.debug", "true");
 
-        // Set login credentials for CallbackHandler using custom security properties
-        Security.setProperty("java.security.krb5.login.user", USER);
-        Security.setProperty("java.security.krb5.login.password", PASSWORD);
+        // Set login credentials for CallbackHandler using custom security properties, only needed for password logins
+        if (LOGIN_MODE == KerberosCredentialManager.LoginMode.PASSWORD) {
+            Security.setProperty("java.security.krb5.login.user", USER);
+            Security.setProperty("java.security.krb5.login.password", PASSWORD);
+        }
 
         //enableDebugSystemProperties();
 
@@ -113,10 +196,77 @@ public class Main {
         // check https://github.com/frohoff/jdk8u-dev-jdk/blob/master/src/share/classes/sun/security/jgss/GSSUtil.java#L241
         Security.setProperty("auth.login.defaultCallbackHandler", "auth.kerberos.example.commons.security.KerberosCallBackHandler");
 
-        for (int i = 0; i < REQUEST_RETRIES; i++) {
-            callServer("http://ifconfig.me");
-            System.out.printf("Executing: %s", Time.from(Instant.now()));
-            Thread.sleep(500);
+        // Metrics are resolved when components are built, so the registry goes in first
+        SimpleAuthMetricsRegistry metrics = new SimpleAuthMetricsRegistry();
+        AuthMetrics.setRegistry(metrics);
+
+        // Log in once up front, tickets are renewed in the background from here on
+        KerberosCredentialManager credentialManager;
+        try {
+            credentialManager = KerberosCredentialManager.create(LOGIN_MODE, USER, PASSWORD.toCharArray(), KEYTAB_PATH);
+        } catch (IOException e) {
+            throw new IllegalStateException("Kerberos login failed", e);
+        }
+        // Closed whatever happens below, which also wipes derived keys from the disk
+        try {
+            try {
+                credentialManager.login();
+            } catch (LoginException e) {
+                throw new IllegalStateException("Kerberos login failed", e);
+            }
+            AuthFailurePolicy failurePolicy = new AuthFailurePolicy()
+                    .setFailureThreshold(AUTH_FAILURE_THRESHOLD)
+                    .setTokenDeadlineMillis(TOKEN_DEADLINE_MILLIS);
+            credentialManager.setLoginFailurePolicy(failurePolicy);
+            SpnegoEngineRegistry engineRegistry = new SpnegoEngineRegistry(new SpnegoEngineConfig()
+                    .setWorkerPool(new GssWorkerPool(GSS_WORKER_THREADS, GSS_WORKER_QUEUE))
+                    .setNameCache(new GssNameCache(PROXY_NAME_TTL_MILLIS, CANONICALIZE_PROXY_HOST, true))
+                    .setFailurePolicy(failurePolicy));
+            AuthMetrics.registry().gauge(AuthMetrics.ENGINE_REGISTRY_SIZE, engineRegistry::size);
+
+            resultLogger = new AsyncResultLogger();
+            httpClient = getHttpClient(credentialManager, engineRegistry);
+            ExecutorService workers = Executors.newFixedThreadPool(WORKER_THREADS);
+            CountDownLatch countDownLatch = new CountDownLatch(REQUEST_RETRIES);
+            for (int i = 0; i < REQUEST_RETRIES; i++) {
+                workers.execute(() -> {
+                    try {
+                        acquirePermit();
+                        callServer("http://ifconfig.me");
+                    } catch (IOException e) {
+                        resultLogger.log("ERROR EXECUTING REQUEST: %s - %s", e.getMessage(), e.getCause());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        countDownLatch.countDown();
+                    }
+                });
+            }
+            countDownLatch.await();
+
+            workers.shutdown();
+            httpClient.close();
+            resultLogger.close();
+            System.out.println("********AUTH METRICS");
+            System.out.print(metrics.report());
+            engineRegistry.close();
+        } finally {
+            credentialManager.close();
+        }
+    }
+
+    /**
+     * Paces workers to TARGET_RATE by handing out evenly spaced request slots.
+     */
+    private static void acquirePermit() throws InterruptedException {
+        if (TARGET_RATE <= 0) {
+            return;
+        }
+        long interval = TimeUnit.SECONDS.toNanos(1) / TARGET_RATE;
+        long slot = nextPermitNanos.getAndUpdate(next -> Math.max(next, System.nanoTime()) + interval);
+        long wait = slot - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
         }
     }
 
@@ -0,0 +1,72 @@
+package auth.kerberos.example.apachehc4;
+
+import auth.kerberos.example.commons.proxy.ProxyEndpoint;
+import auth.kerberos.example.commons.proxy.ProxyPool;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.DefaultRoutePlanner;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Route planner spreading requests over a {@link ProxyPool}.
+ * <p>
+ * Every request is routed through the currently best proxy; pooled connections are kept per route, so each proxy
+ * keeps its own authenticated connections. {@link #decorate(ClientExecChain)} wraps the protocol exec chain to report
+ * in-flight requests, time to response headers and I/O failures of each proxy back to the pool.
+ */
+public class ProxyPoolRoutePlanner extends DefaultRoutePlanner {
+    private final ProxyPool pool;
+    private final Map<ProxyEndpoint, HttpHost> hosts = new IdentityHashMap<>();
+
+    public ProxyPoolRoutePlanner(ProxyPool pool) {
+        super(null);
+        this.pool = pool;
+        for (ProxyEndpoint endpoint : pool.endpoints()) {
+            hosts.put(endpoint, new HttpHost(endpoint.getHost(), endpoint.getPort()));
+        }
+    }
+
+    public ProxyPool pool() {
+        return pool;
+    }
+
+    @Override
+    protected HttpHost determineProxy(HttpHost target, HttpRequest request, HttpContext context) throws HttpException {
+        return hosts.get(pool.select());
+    }
+
+    /**
+     * Exec chain reporting each request to the pool entry of the proxy on its route.
+     */
+    public ClientExecChain decorate(final ClientExecChain protocolExec) {
+        return (HttpRoute route, HttpRequestWrapper request, HttpClientContext context, HttpExecutionAware execAware) -> {
+            HttpHost proxy = route.getProxyHost();
+            ProxyEndpoint endpoint = proxy != null ? pool.find(proxy.getHostName(), proxy.getPort()) : null;
+            if (endpoint == null) {
+                return protocolExec.execute(route, request, context, execAware);
+            }
+            pool.started(endpoint);
+            long start = System.nanoTime();
+            CloseableHttpResponse response;
+            try {
+                response = protocolExec.execute(route, request, context, execAware);
+            } catch (IOException | HttpException | RuntimeException e) {
+                pool.failed(endpoint);
+                throw e;
+            }
+            pool.succeeded(endpoint, System.nanoTime() - start);
+            return response;
+        };
+    }
+}
@@ -0,0 +1,162 @@
+package auth.kerberos.example.apachehc4;
+
+import auth.kerberos.example.commons.metrics.AuthMetrics;
+import auth.kerberos.example.commons.security.KerberosCredentialManager;
+import auth.kerberos.example.commons.security.SpnegoEngine;
+import auth.kerberos.example.commons.security.SpnegoEngineRegistry;
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.auth.AUTH;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.InvalidCredentialsException;
+import org.apache.http.client.config.AuthSchemes;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.RouteInfo;
+import org.apache.http.impl.auth.AuthSchemeBase;
+import org.apache.http.message.BufferedHeader;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.CharArrayBuffer;
+import org.ietf.jgss.GSSException;
+
+/**
+ * HttpClient 4 {@code Negotiate} scheme generating its tokens with the shared {@link SpnegoEngine} of the challenged
+ * host, so apachehc4 goes through the same credential manager, SPN canonicalization cache, GSS worker pool, token pool
+ * and metrics as the okhttp3 flavor.
+ * <p>
+ * One instance follows one authentication exchange, as created by {@link SpnegoEngineSchemeProvider}. Proxy challenges
+ * are answered for the proxy on the request route, which is what a {@link ProxyPoolRoutePlanner} picked.
+ * <p>
+ * Notes:
+ * - Like Apache's own SPNEGO scheme, the server token on the final response is not verified (no mutual auth check)
+ * - The scheme is connection based, reused keep-alive connections are not re-authenticated
+ */
+public class SpnegoEngineScheme extends AuthSchemeBase {
+    private enum State {
+        UNINITIATED,
+        CHALLENGE_RECEIVED,
+        TOKEN_GENERATED,
+        FAILED,
+    }
+
+    private final KerberosCredentialManager credentialManager;
+    private final SpnegoEngineRegistry engineRegistry;
+
+    private State state = State.UNINITIATED;
+    private String authHost;
+    private String token;
+
+    /**
+     * @param credentialManager shared credential holder, or null to let JGSS acquire credentials on every token
+     */
+    public SpnegoEngineScheme(KerberosCredentialManager credentialManager, SpnegoEngineRegistry engineRegistry) {
+        this.credentialManager = credentialManager;
+        this.engineRegistry = engineRegistry;
+    }
+
+    @Override
+    public String getSchemeName() {
+        return AuthSchemes.SPNEGO;
+    }
+
+    @Override
+    public String getParameter(String name) {
+        return null;
+    }
+
+    @Override
+    public String getRealm() {
+        return null;
+    }
+
+    @Override
+    public boolean isConnectionBased() {
+        return true;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return state == State.TOKEN_GENERATED || state == State.FAILED;
+    }
+
+    @Override
+    protected void parseChallenge(CharArrayBuffer buffer, int beginIndex, int endIndex) {
+        if (state == State.UNINITIATED) {
+            state = State.CHALLENGE_RECEIVED;
+            return;
+        }
+        // Challenged again after sending a token: the proxy rejected it
+        if (authHost != null && isProxy()) {
+            AuthMetrics.registry().counter(AuthMetrics.PROXY_GIVE_UPS, authHost).increment();
+        }
+        state = State.FAILED;
+    }
+
+    /**
+     * @deprecated the challenged host is taken from the route in the context, use
+     * {@link #authenticate(Credentials, HttpRequest, HttpContext)}
+     */
+    @Deprecated
+    @Override
+    public Header authenticate(Credentials credentials, HttpRequest request) throws AuthenticationException {
+        return authenticate(credentials, request, null);
+    }
+
+    @Override
+    public Header authenticate(Credentials credentials,
+                               HttpRequest request,
+                               HttpContext context) throws AuthenticationException {
+        switch (state) {
+            case UNINITIATED:
+                throw new AuthenticationException(getSchemeName() + " authentication has not been initiated");
+            case FAILED:
+                throw new AuthenticationException(getSchemeName() + " authentication has failed");
+            case CHALLENGE_RECEIVED:
+                authHost = challengedHost(context);
+                if (isProxy()) {
+                    AuthMetrics.registry().counter(AuthMetrics.PROXY_CHALLENGES, authHost).increment();
+                }
+                token = generateToken(authHost);
+                state = State.TOKEN_GENERATED;
+                break;
+            case TOKEN_GENERATED:
+                break;
+        }
+        CharArrayBuffer buffer = new CharArrayBuffer(32 + token.length());
+        buffer.append(isProxy() ? AUTH.PROXY_AUTH_RESP : AUTH.WWW_AUTH_RESP);
+        buffer.append(": Negotiate ");
+        buffer.append(token);
+        return new BufferedHeader(buffer);
+    }
+
+    private String challengedHost(HttpContext context) throws AuthenticationException {
+        RouteInfo route = context != null ? HttpClientContext.adapt(context).getHttpRoute() : null;
+        if (route == null) {
+            throw new AuthenticationException("Connection route is not available");
+        }
+        HttpHost host = isProxy() && route.getProxyHost() != null ? route.getProxyHost() : route.getTargetHost();
+        return host.getHostName();
+    }
+
+    private String generateToken(String host) throws AuthenticationException {
+        try {
+            String principal = credentialManager != null ? credentialManager.getPrincipalName() : "";
+            return engineRegistry.withEngine(
+                    principal,
+                    SpnegoEngine.DEFAULT_SERVICE_NAME,
+                    host,
+                    SpnegoEngine.GSS_SPNEGO_MECH_OID,
+                    credentialManager,
+                    SpnegoEngine::nextToken);
+        } catch (GSSException e) {
+            state = State.FAILED;
+            if (e.getMajor() == GSSException.DEFECTIVE_CREDENTIAL
+                    || e.getMajor() == GSSException.CREDENTIALS_EXPIRED
+                    || e.getMajor() == GSSException.NO_CRED) {
+                throw new InvalidCredentialsException(e.getMessage(), e);
+            }
+            throw new AuthenticationException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package auth.kerberos.example.apachehc4;
+
+import auth.kerberos.example.commons.security.KerberosCredentialManager;
+import auth.kerberos.example.commons.security.SpnegoEngineRegistry;
+import org.apache.http.auth.AuthScheme;
+import org.apache.http.auth.AuthSchemeProvider;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Registers {@link SpnegoEngineScheme} for {@code Negotiate}, in place of Apache's {@code SPNegoSchemeFactory}.
+ * Schemes are created per exchange, the engines behind them are shared through the registry.
+ */
+public class SpnegoEngineSchemeProvider implements AuthSchemeProvider {
+    private final KerberosCredentialManager credentialManager;
+    private final SpnegoEngineRegistry engineRegistry;
+
+    public SpnegoEngineSchemeProvider(KerberosCredentialManager credentialManager, SpnegoEngineRegistry engineRegistry) {
+        this.credentialManager = credentialManager;
+        this.engineRegistry = engineRegistry;
+    }
+
+    @Override
+    public AuthScheme create(HttpContext context) {
+        return new SpnegoEngineScheme(credentialManager, engineRegistry);
+    }
+}
@@ -0,0 +1,215 @@
+package auth.kerberos.example.apachehc4async;
+
+import auth.kerberos.example.commons.metrics.AuthMetrics;
+import auth.kerberos.example.commons.proxy.ProxyEndpoint;
+import auth.kerberos.example.commons.proxy.ProxyPool;
+import auth.kerberos.example.commons.security.GssWorkerPool;
+import auth.kerberos.example.commons.security.KerberosCredentialManager;
+import auth.kerberos.example.commons.security.SpnegoEngine;
+import auth.kerberos.example.commons.security.SpnegoEngineRegistry;
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AUTH;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.util.EntityUtils;
+import org.ietf.jgss.GSSException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking HttpAsyncClient routed through Kerberos proxies, authenticating with SPNEGO outside the I/O reactor.
+ * <p>
+ * HttpAsyncClient runs its auth schemes on the reactor threads, so a token generated there stalls every connection of
+ * that dispatcher for the whole {@code initSecContext}. Its built-in authentication is disabled instead: a request
+ * answered with a {@code 407 Negotiate} is retried through the same proxy once the token is ready, the token being
+ * generated by the shared {@link SpnegoEngine} on a {@link GssWorkerPool}. Reactor threads only move bytes.
+ * <p>
+ * Each call picks its proxy from the {@link ProxyPool} and reports in-flight count, latency and failures back to it.
+ * <p>
+ * Notes:
+ * - Plain HTTP requests through the proxy only, CONNECT tunnels (https targets) are not authenticated
+ * - Authenticated keep-alive connections pass later requests without a challenge, as with the connection-based schemes
+ * - The request gets the Proxy-Authorization header on retry, requests with a body need a repeatable entity
+ * - Responses are buffered in memory by HttpAsyncClient before the future completes
+ */
+public class KerberosProxyAsyncClient implements Closeable {
+    private final ProxyPool proxyPool;
+    private final Map<ProxyEndpoint, RequestConfig> requestConfigs = new IdentityHashMap<>();
+    private final KerberosCredentialManager credentialManager;
+    private final SpnegoEngineRegistry engineRegistry;
+    private final GssWorkerPool tokenWorkers;
+    private final CloseableHttpAsyncClient client;
+
+    /**
+     * @param tokenWorkers           pool generating the tokens, distinct from the engines' own worker pool
+     * @param ioThreads              I/O reactor threads
+     * @param maxConnectionsPerProxy connections kept per proxy, bounding the requests on the wire through it
+     */
+    public KerberosProxyAsyncClient(ProxyPool proxyPool,
+                                    KerberosCredentialManager credentialManager,
+                                    SpnegoEngineRegistry engineRegistry,
+                                    GssWorkerPool tokenWorkers,
+                                    int ioThreads,
+                                    int maxConnectionsPerProxy) {
+        this.proxyPool = proxyPool;
+        this.credentialManager = credentialManager;
+        this.engineRegistry = engineRegistry;
+        this.tokenWorkers = tokenWorkers;
+        RequestConfig defaults = RequestConfig.custom()
+                .setAuthenticationEnabled(false)
+                .build();
+        for (ProxyEndpoint endpoint : proxyPool.endpoints()) {
+            requestConfigs.put(endpoint, RequestConfig.copy(defaults)
+                    .setProxy(new HttpHost(endpoint.getHost(), endpoint.getPort()))
+                    .build());
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        this.client = HttpAsyncClients.custom()
+                .setDefaultIOReactorConfig(IOReactorConfig.custom()
+                        .setIoThreadCount(ioThreads)
+                        .build())
+                .setThreadFactory(r -> {
+                    Thread t = new Thread(r, "async-proxy-reactor-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                })
+                .setMaxConnPerRoute(maxConnectionsPerProxy)
+                .setMaxConnTotal(maxConnectionsPerProxy * proxyPool.endpoints().size())
+                .setDefaultRequestConfig(defaults)
+                .build();
+        this.client.start();
+    }
+
+    /**
+     * Sends the request through the best proxy of the pool. The future completes on a reactor or token worker thread,
+     * callers must not block there.
+     */
+    public CompletableFuture<HttpResponse> execute(HttpUriRequest request) {
+        ProxyEndpoint endpoint = proxyPool.select();
+        HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(requestConfigs.get(endpoint));
+        CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        proxyPool.started(endpoint);
+        send(new Exchange(request, context, endpoint, result, System.nanoTime()));
+        return result;
+    }
+
+    private void send(Exchange exchange) {
+        client.execute(exchange.request, exchange.context, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                if (response.getStatusLine().getStatusCode() == HttpStatus.SC_PROXY_AUTHENTICATION_REQUIRED
+                        && isNegotiateChallenge(response)) {
+                    String host = exchange.endpoint.getHost();
+                    if (exchange.authenticated) {
+                        // Challenged again after sending a token: the proxy rejected it, the 407 goes back to the
+                        // caller and the proxy is not credited with a success
+                        AuthMetrics.registry().counter(AuthMetrics.PROXY_GIVE_UPS, host).increment();
+                        proxyPool.failed(exchange.endpoint);
+                        exchange.result.complete(response);
+                        return;
+                    }
+                    AuthMetrics.registry().counter(AuthMetrics.PROXY_CHALLENGES, host).increment();
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    authenticate(exchange);
+                    return;
+                }
+                proxyPool.succeeded(exchange.endpoint, System.nanoTime() - exchange.startNanos);
+                exchange.result.complete(response);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                proxyPool.failed(exchange.endpoint);
+                exchange.result.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                proxyPool.cancelled(exchange.endpoint);
+                exchange.result.cancel(false);
+            }
+        });
+    }
+
+    /**
+     * Generates the token on the worker pool and resends from there, the reactor thread returns right away.
+     */
+    private void authenticate(Exchange exchange) {
+        String host = exchange.endpoint.getHost();
+        tokenWorkers.submit(() -> token(host)).whenComplete((token, error) -> {
+            if (error != null) {
+                // The proxy answered, the token could not be generated: not a proxy failure
+                proxyPool.cancelled(exchange.endpoint);
+                exchange.result.completeExceptionally(
+                        new IOException("SPNEGO token generation failed for proxy " + host, error));
+                return;
+            }
+            exchange.request.setHeader(AUTH.PROXY_AUTH_RESP, "Negotiate " + token);
+            exchange.authenticated = true;
+            send(exchange);
+        });
+    }
+
+    private String token(String host) throws GSSException {
+        String principal = credentialManager != null ? credentialManager.getPrincipalName() : "";
+        return engineRegistry.withEngine(
+                principal,
+                SpnegoEngine.DEFAULT_SERVICE_NAME,
+                host,
+                SpnegoEngine.GSS_SPNEGO_MECH_OID,
+                credentialManager,
+                SpnegoEngine::nextToken);
+    }
+
+    private static boolean isNegotiateChallenge(HttpResponse response) {
+        for (Header header : response.getHeaders(AUTH.PROXY_AUTH)) {
+            if (header.getValue().regionMatches(true, 0, "Negotiate", 0, "Negotiate".length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+
+    /**
+     * One logical call, possibly sent twice (challenge, then token).
+     */
+    private static final class Exchange {
+        private final HttpUriRequest request;
+        private final HttpClientContext context;
+        private final ProxyEndpoint endpoint;
+        private final CompletableFuture<HttpResponse> result;
+        private final long startNanos;
+        private volatile boolean authenticated;
+
+        private Exchange(HttpUriRequest request,
+                         HttpClientContext context,
+                         ProxyEndpoint endpoint,
+                         CompletableFuture<HttpResponse> result,
+                         long startNanos) {
+            this.request = request;
+            this.context = context;
+            this.endpoint = endpoint;
+            this.result = result;
+            this.startNanos = startNanos;
+        }
+    }
+}
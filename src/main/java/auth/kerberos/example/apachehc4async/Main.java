@@ -0,0 +1,164 @@
+package auth.kerberos.example.apachehc4async;
+
+import auth.kerberos.example.commons.io.AsyncResultLogger;
+import auth.kerberos.example.commons.io.ResponseConsumer;
+import auth.kerberos.example.commons.io.ResponseConsumers;
+import auth.kerberos.example.commons.metrics.AuthMetrics;
+import auth.kerberos.example.commons.metrics.SimpleAuthMetricsRegistry;
+import auth.kerberos.example.commons.proxy.ProxyPool;
+import auth.kerberos.example.commons.security.AuthFailurePolicy;
+import auth.kerberos.example.commons.security.GssNameCache;
+import auth.kerberos.example.commons.security.GssWorkerPool;
+import auth.kerberos.example.commons.security.KerberosCallBackHandler;
+import auth.kerberos.example.commons.security.KerberosCredentialManager;
+import auth.kerberos.example.commons.security.SpnegoEngineConfig;
+import auth.kerberos.example.commons.security.SpnegoEngineRegistry;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+
+import javax.security.auth.login.LoginException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Security;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Non-blocking counterpart of the apachehc4 flavor, on HttpAsyncClient 4.x.
+ * <p>
+ * A single thread submits REQUEST_RETRIES requests, keeping up to MAX_IN_FLIGHT of them open through the proxies at
+ * once, over at most MAX_CONNECTIONS_PER_PROXY connections per proxy. The wire is handled by IO_THREADS reactor
+ * threads and SPNEGO tokens by GSS_WORKER_THREADS workers, so the concurrency is not bound to the thread count as with
+ * the blocking flavors.
+ * <p>
+ * Notes:
+ * - You need to have a valid /etc/krb5.conf in place
+ * - Set proper username/password in USER and PASSWORD constants (or KEYTAB_PATH, see LOGIN_MODE), also PROXIES
+ * - Targets must be plain HTTP, see {@link KerberosProxyAsyncClient}
+ *
+ * @see KerberosCallBackHandler
+ */
+public class Main {
+    public static final int REQUEST_RETRIES = 10_000;
+    private static final String HTTP_HOST = "http://ifconfig.me";
+    private static final String USER = "user";
+    private static final String PASSWORD = "pass";
+    // Login mode: PASSWORD answers each KDC login from USER/PASSWORD through the callback handler, deriving the keys every
+    // time. KEYTAB reads the keys from KEYTAB_PATH, DERIVED_KEYS derives them from PASSWORD once at startup
+    private static final KerberosCredentialManager.LoginMode LOGIN_MODE = KerberosCredentialManager.LoginMode.DERIVED_KEYS;
+    private static final String KEYTAB_PATH = "/etc/krb5.keytab";
+    // Comma separated host:port list, balanced by in-flight requests and latency with failing proxies ejected
+    private static final String PROXIES = "proxy.com:3128";
+    // Set to false when the proxy SPN is known to be HTTP/<proxy host>, skipping DNS lookups entirely. Canonical names are
+    // otherwise cached and refreshed in the background
+    private static final boolean CANONICALIZE_PROXY_HOST = true;
+    private static final long PROXY_NAME_TTL_MILLIS = 300_000;
+    // Requests open at once, and the threads serving them: reactor threads for I/O, workers for token generation
+    private static final int MAX_IN_FLIGHT = 1024;
+    // Connections per proxy, each carries one request at a time: requests beyond that wait for a pooled connection
+    private static final int MAX_CONNECTIONS_PER_PROXY = 64;
+    private static final int IO_THREADS = 2;
+    private static final int GSS_WORKER_THREADS = 4;
+    private static final int GSS_WORKER_QUEUE = 2048;
+    // Outage protection: after AUTH_FAILURE_THRESHOLD failures in a row, logins and tokens fail fast while the KDC is
+    // probed with jittered exponential backoff
+    private static final int AUTH_FAILURE_THRESHOLD = 3;
+    // Pre-generated tokens kept per proxy (0 disables the pool) and their maximum age
+    private static final int TOKEN_POOL_DEPTH = 16;
+    private static final long TOKEN_FRESHNESS_MILLIS = 30_000;
+    // Bodies are buffered by the async client, only their first bytes are kept for the result line
+    private static final ResponseConsumer RESPONSE_CONSUMER = ResponseConsumers.preview(256);
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.setProperty("java.security.krb5.conf", "/etc/krb5.conf");
+        // Credentials are kept in the KerberosCredentialManager subject, so JGSS must only look for (and store) tickets there
+        // See https://docs.oracle.com/javase/7/docs/technotes/guides/security/jgss/tutorials/BasicClientServer.html
+        System.setProperty("javax.security.auth.useSubjectCredsOnly", "true");
+
+        // Set login credentials for CallbackHandler using custom security properties, only needed for password logins
+        if (LOGIN_MODE == KerberosCredentialManager.LoginMode.PASSWORD) {
+            Security.setProperty("java.security.krb5.login.user", USER);
+            Security.setProperty("java.security.krb5.login.password", PASSWORD);
+        }
+
+        // Setting default callback handler to avoid prompting for password on command line
+        // check https://github.com/frohoff/jdk8u-dev-jdk/blob/master/src/share/classes/sun/security/jgss/GSSUtil.java#L241
+        Security.setProperty("auth.login.defaultCallbackHandler", "auth.kerberos.example.commons.security.KerberosCallBackHandler");
+
+        // Metrics are resolved when components are built, so the registry goes in first
+        SimpleAuthMetricsRegistry metrics = new SimpleAuthMetricsRegistry();
+        AuthMetrics.setRegistry(metrics);
+
+        // Log in once up front, tickets are renewed in the background from here on
+        KerberosCredentialManager credentialManager;
+        try {
+            credentialManager = KerberosCredentialManager.create(LOGIN_MODE, USER, PASSWORD.toCharArray(), KEYTAB_PATH);
+        } catch (IOException e) {
+            throw new IllegalStateException("Kerberos login failed", e);
+        }
+        // Closed whatever happens below, which also wipes derived keys from the disk
+        try {
+            try {
+                credentialManager.login();
+            } catch (LoginException e) {
+                throw new IllegalStateException("Kerberos login failed", e);
+            }
+            AuthFailurePolicy failurePolicy = new AuthFailurePolicy()
+                    .setFailureThreshold(AUTH_FAILURE_THRESHOLD);
+            credentialManager.setLoginFailurePolicy(failurePolicy);
+            // Engines generate tokens on the calling thread, which is always one of the token workers here
+            SpnegoEngineRegistry engineRegistry = new SpnegoEngineRegistry(new SpnegoEngineConfig()
+                    .setNameCache(new GssNameCache(PROXY_NAME_TTL_MILLIS, CANONICALIZE_PROXY_HOST, true))
+                    .setFailurePolicy(failurePolicy)
+                    .setTokenPoolDepth(TOKEN_POOL_DEPTH)
+                    .setTokenFreshnessMillis(TOKEN_FRESHNESS_MILLIS));
+            AuthMetrics.registry().gauge(AuthMetrics.ENGINE_REGISTRY_SIZE, engineRegistry::size);
+            GssWorkerPool tokenWorkers = new GssWorkerPool(GSS_WORKER_THREADS, GSS_WORKER_QUEUE);
+
+            AsyncResultLogger resultLogger = new AsyncResultLogger();
+            KerberosProxyAsyncClient client = new KerberosProxyAsyncClient(ProxyPool.parse(PROXIES),
+                    credentialManager, engineRegistry, tokenWorkers, IO_THREADS, MAX_CONNECTIONS_PER_PROXY);
+            Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+            CountDownLatch countDownLatch = new CountDownLatch(REQUEST_RETRIES);
+            for (int i = 0; i < REQUEST_RETRIES; i++) {
+                inFlight.acquire();
+                client.execute(new HttpGet(HTTP_HOST)).whenComplete((response, error) -> {
+                    try {
+                        if (error != null) {
+                            resultLogger.log("ERROR EXECUTING REQUEST: %s", error);
+                        } else {
+                            logResult(response, resultLogger);
+                        }
+                    } finally {
+                        inFlight.release();
+                        countDownLatch.countDown();
+                    }
+                });
+            }
+            countDownLatch.await();
+
+            client.close();
+            resultLogger.close();
+            System.out.println("********AUTH METRICS");
+            System.out.print(metrics.report());
+            tokenWorkers.close();
+            engineRegistry.close();
+        } finally {
+            credentialManager.close();
+        }
+    }
+
+    private static void logResult(HttpResponse response, AsyncResultLogger resultLogger) {
+        HttpEntity entity = response.getEntity();
+        String result = "";
+        if (entity != null) {
+            try (InputStream body = entity.getContent()) {
+                result = RESPONSE_CONSUMER.consume(body);
+            } catch (IOException e) {
+                result = "unreadable body: " + e;
+            }
+        }
+        resultLogger.log("STATUS >> %s RESULT >> %s", response.getStatusLine(), result);
+    }
+}
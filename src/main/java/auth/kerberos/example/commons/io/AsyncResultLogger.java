@@ -0,0 +1,99 @@
+package auth.kerberos.example.commons.io;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Result line logger writing from a single background thread.
+ * <p>
+ * Callers only offer the line to a bounded queue, never touching the output stream, so request threads do not
+ * serialize on console I/O. The writer thread drains whatever is queued and writes it as one batch with a single flush.
+ * When the queue is full the line is dropped and counted rather than blocking the caller.
+ */
+public class AsyncResultLogger implements Closeable {
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    private static final int MAX_BATCH = 512;
+
+    private final BlockingQueue<String> queue;
+    private final PrintStream out;
+    private final Thread writer;
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+
+    public AsyncResultLogger() {
+        this(System.out, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public AsyncResultLogger(final PrintStream out, final int queueCapacity) {
+        this.out = out;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.writer = new Thread(this::drain, "async-result-logger");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public void log(String line) {
+        if (closed || !queue.offer(line)) {
+            dropped.increment();
+        }
+    }
+
+    public void log(String format, Object... args) {
+        log(String.format(format, args));
+    }
+
+    /**
+     * Lines dropped because the queue was full or the logger closed.
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes out the lines already queued, then stops the writer thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long lost = dropped.sum();
+        if (lost > 0) {
+            out.println("Result logger dropped " + lost + " lines");
+        }
+        out.flush();
+    }
+
+    private void drain() {
+        List<String> batch = new ArrayList<>(MAX_BATCH);
+        StringBuilder sb = new StringBuilder(MAX_BATCH * 64);
+        try {
+            while (!closed || !queue.isEmpty()) {
+                String first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                for (String line : batch) {
+                    sb.append(line).append(System.lineSeparator());
+                }
+                out.print(sb);
+                out.flush();
+                batch.clear();
+                sb.setLength(0);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package auth.kerberos.example.commons.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streams a response body to its destination without materializing it.
+ * <p>
+ * Implementations read through a fixed, reused buffer and must consume the stream to its end, so the underlying
+ * connection can go back to the pool. The stream is closed by the caller.
+ *
+ * @see ResponseConsumers
+ */
+public interface ResponseConsumer {
+    /**
+     * @return short description of what was consumed (size, digest, path...) for the result log
+     */
+    String consume(InputStream body) throws IOException;
+}
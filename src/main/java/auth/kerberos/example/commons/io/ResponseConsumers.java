@@ -0,0 +1,129 @@
+package auth.kerberos.example.commons.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stock {@link ResponseConsumer} implementations.
+ * <p>
+ * All of them read through a per-thread buffer reused across responses, so consuming a body allocates nothing
+ * proportional to its size. Consumers are stateless (or thread-safe) and can be shared by every worker.
+ */
+public final class ResponseConsumers {
+    public static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ResponseConsumers() {
+    }
+
+    /**
+     * Drains the body, reporting its size.
+     */
+    public static ResponseConsumer discard() {
+        return body -> {
+            byte[] buffer = BUFFER.get();
+            long total = 0;
+            for (int n; (n = body.read(buffer)) != -1; ) {
+                total += n;
+            }
+            return total + " bytes";
+        };
+    }
+
+    /**
+     * Drains the body, reporting its size and at most the first {@code maxBytes} bytes decoded as UTF-8.
+     */
+    public static ResponseConsumer preview(final int maxBytes) {
+        return body -> {
+            byte[] buffer = BUFFER.get();
+            // The tail of the buffer is left for draining the rest of the body
+            int limit = Math.min(maxBytes, buffer.length / 2);
+            int kept = 0;
+            long total = 0;
+            // Fill the head of the buffer first, then keep reading past it so the preview survives
+            for (int n; (n = body.read(buffer, kept, kept < limit ? limit - kept : buffer.length - limit)) != -1; ) {
+                if (kept < limit) {
+                    kept += n;
+                }
+                total += n;
+            }
+            return total + " bytes: " + new String(buffer, 0, kept, StandardCharsets.UTF_8).trim();
+        };
+    }
+
+    /**
+     * Drains the body through a message digest (e.g. "SHA-256"), reporting its size and hex digest.
+     */
+    public static ResponseConsumer digest(final String algorithm) {
+        try {
+            MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported digest " + algorithm, e);
+        }
+        final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        return body -> {
+            byte[] buffer = BUFFER.get();
+            MessageDigest digest = digests.get();
+            digest.reset();
+            long total = 0;
+            for (int n; (n = body.read(buffer)) != -1; ) {
+                digest.update(buffer, 0, n);
+                total += n;
+            }
+            return total + " bytes " + algorithm + "=" + hex(digest.digest());
+        };
+    }
+
+    /**
+     * Writes each body to its own file in the given (existing) directory through a {@link FileChannel}.
+     */
+    public static ResponseConsumer file(final Path directory, final String prefix) {
+        final AtomicLong sequence = new AtomicLong();
+        return body -> {
+            Path target = directory.resolve(prefix + sequence.incrementAndGet());
+            byte[] buffer = BUFFER.get();
+            ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+            long total = 0;
+            try (FileChannel channel = FileChannel.open(target,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (int n; (n = body.read(buffer)) != -1; ) {
+                    // Through Buffer, whose clear/limit signatures are the same on Java 8 and later
+                    Buffer view = wrapper;
+                    view.clear();
+                    view.limit(n);
+                    while (wrapper.hasRemaining()) {
+                        channel.write(wrapper);
+                    }
+                    total += n;
+                }
+            }
+            return total + " bytes -> " + target;
+        };
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,48 @@
+package auth.kerberos.example.commons.metrics;
+
+/**
+ * Process-wide metrics registry holder and metric names.
+ * <p>
+ * Components resolve their meters when created, so install the registry at startup, before building engines and
+ * authenticators. The no-op registry is used until then.
+ */
+public final class AuthMetrics {
+    public static final String TOKEN_GENERATION = "spnego.token.generation";
+    /*
+     * Background pre-generation by the token pool, kept apart from the on-demand latency above
+     * */
+    public static final String TOKEN_POOL_GENERATION = "spnego.token.pool.generation";
+    public static final String TOKEN_FAILURES = "spnego.token.failures";
+    /*
+     * Contexts initiated with the proxy service ticket already in the shared subject, or without it (relogins included)
+     * */
+    public static final String CREDENTIAL_CACHE_HITS = "kerberos.credential.cache.hits";
+    public static final String CREDENTIAL_CACHE_MISSES = "kerberos.credential.cache.misses";
+    /*
+     * Login attempts against the KDC, failed ones included
+     * */
+    public static final String KDC_LOGINS = "kerberos.kdc.logins";
+    public static final String CALLBACK_LOGINS = "kerberos.callback.logins";
+    public static final String PROXY_CHALLENGES = "proxy.auth.challenges";
+    public static final String PROXY_GIVE_UPS = "proxy.auth.giveups";
+    public static final String AUTH_FAST_FAILURES = "auth.failfast";
+    public static final String AUTH_CIRCUIT_OPENS = "auth.circuit.opens";
+    public static final String ENGINE_REGISTRY_SIZE = "spnego.engine.registry.size";
+    /*
+     * Tag used for meters not bound to a proxy host
+     * */
+    public static final String NO_HOST = "";
+
+    private static volatile AuthMetricsRegistry registry = AuthMetricsRegistry.NOOP;
+
+    private AuthMetrics() {
+    }
+
+    public static AuthMetricsRegistry registry() {
+        return registry;
+    }
+
+    public static void setRegistry(AuthMetricsRegistry registry) {
+        AuthMetrics.registry = registry != null ? registry : AuthMetricsRegistry.NOOP;
+    }
+}
@@ -0,0 +1,48 @@
+package auth.kerberos.example.commons.metrics;
+
+import java.util.function.Supplier;
+
+/**
+ * Pluggable metrics backend for the authentication path.
+ * <p>
+ * Meters are looked up once (per component and proxy host) and then updated on the hot path, so implementations
+ * should keep {@link Counter#increment()} and {@link Timer#record(long)} lock-free. The shape maps one to one to
+ * Micrometer: counters, timers and gauges, named and tagged by proxy host.
+ */
+public interface AuthMetricsRegistry {
+    AuthMetricsRegistry NOOP = new AuthMetricsRegistry() {
+        @Override
+        public Counter counter(String name, String proxyHost) {
+            return Counter.NOOP;
+        }
+
+        @Override
+        public Timer timer(String name, String proxyHost) {
+            return Timer.NOOP;
+        }
+
+        @Override
+        public void gauge(String name, Supplier<Number> value) {
+        }
+    };
+
+    Counter counter(String name, String proxyHost);
+
+    Timer timer(String name, String proxyHost);
+
+    void gauge(String name, Supplier<Number> value);
+
+    interface Counter {
+        Counter NOOP = () -> {
+        };
+
+        void increment();
+    }
+
+    interface Timer {
+        Timer NOOP = nanos -> {
+        };
+
+        void record(long nanos);
+    }
+}
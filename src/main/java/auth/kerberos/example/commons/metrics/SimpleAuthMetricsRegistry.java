@@ -0,0 +1,98 @@
+package auth.kerberos.example.commons.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * In-process {@link AuthMetricsRegistry} built on {@link LongAdder} counters and lock-free log2-bucketed latency
+ * histograms, for when no metrics backend is wired in. {@link #report()} renders every meter as text.
+ */
+public class SimpleAuthMetricsRegistry implements AuthMetricsRegistry {
+    private final Map<String, SimpleCounter> counters = new ConcurrentHashMap<>();
+    private final Map<String, SimpleTimer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<Number>> gauges = new ConcurrentHashMap<>();
+
+    @Override
+    public Counter counter(String name, String proxyHost) {
+        return counters.computeIfAbsent(key(name, proxyHost), k -> new SimpleCounter());
+    }
+
+    @Override
+    public Timer timer(String name, String proxyHost) {
+        return timers.computeIfAbsent(key(name, proxyHost), k -> new SimpleTimer());
+    }
+
+    @Override
+    public void gauge(String name, Supplier<Number> value) {
+        gauges.put(name, value);
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        new TreeMap<>(counters).forEach((k, v) -> sb.append(k).append(" count=").append(v.count.sum()).append('\n'));
+        new TreeMap<>(timers).forEach((k, v) -> sb.append(k).append(' ').append(v).append('\n'));
+        new TreeMap<>(gauges).forEach((k, v) -> sb.append(k).append(" value=").append(v.get()).append('\n'));
+        return sb.toString();
+    }
+
+    private static String key(String name, String proxyHost) {
+        return proxyHost == null || proxyHost.isEmpty() ? name : name + "{proxy=" + proxyHost + "}";
+    }
+
+    private static final class SimpleCounter implements Counter {
+        private final LongAdder count = new LongAdder();
+
+        @Override
+        public void increment() {
+            count.increment();
+        }
+    }
+
+    /**
+     * Bucket i holds latencies in [2^i, 2^(i+1)) microseconds, percentiles report the bucket upper bound.
+     */
+    private static final class SimpleTimer implements Timer {
+        private static final int BUCKETS = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        @Override
+        public void record(long nanos) {
+            long micros = Math.max(1, nanos / 1000);
+            int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            totalNanos.add(nanos);
+        }
+
+        private long percentileMicros(double percentile) {
+            long total = count.sum();
+            long threshold = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= threshold && seen > 0) {
+                    return 1L << (i + 1);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            long total = count.sum();
+            return String.format("count=%d mean=%.1fus p50<=%dus p99<=%dus p999<=%dus",
+                    total,
+                    total > 0 ? totalNanos.sum() / 1000.0 / total : 0.0,
+                    percentileMicros(0.5),
+                    percentileMicros(0.99),
+                    percentileMicros(0.999));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package auth.kerberos.example.commons.proxy;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One Kerberos proxy of a {@link ProxyPool} and its load and health state.
+ * <p>
+ * All updates are lock-free: in-flight count and failures are atomics, the latency EWMA is CAS-updated as raw double
+ * bits.
+ */
+public final class ProxyEndpoint {
+    private final String host;
+    private final int port;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong ewmaLatencyBits = new AtomicLong(Double.doubleToRawLongBits(0));
+    private volatile long ejectedUntilNanos;
+    private volatile boolean ejected;
+
+    public ProxyEndpoint(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Parses {@code host:port}.
+     */
+    public static ProxyEndpoint parse(String hostAndPort) {
+        int colon = hostAndPort.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Expected host:port, got " + hostAndPort);
+        }
+        return new ProxyEndpoint(hostAndPort.substring(0, colon).trim(),
+                Integer.parseInt(hostAndPort.substring(colon + 1).trim()));
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public double ewmaLatencyNanos() {
+        return Double.longBitsToDouble(ewmaLatencyBits.get());
+    }
+
+    boolean matches(String host, int port) {
+        return this.port == port && this.host.equalsIgnoreCase(host);
+    }
+
+    boolean isEjected(long now) {
+        return ejected && now - ejectedUntilNanos < 0;
+    }
+
+    long ejectedUntilNanos() {
+        return ejectedUntilNanos;
+    }
+
+    /**
+     * Load score, lower is better: expected wait for a new request given the calls already in flight.
+     */
+    double score() {
+        return (inFlight.get() + 1) * (ewmaLatencyNanos() + 1);
+    }
+
+    void started() {
+        inFlight.incrementAndGet();
+    }
+
+    void finished() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Folds a successful request latency into the EWMA and clears the failure streak.
+     */
+    void recordSuccess(long latencyNanos, double alpha) {
+        consecutiveFailures.set(0);
+        ejected = false;
+        while (true) {
+            long bits = ewmaLatencyBits.get();
+            double current = Double.longBitsToDouble(bits);
+            double next = current == 0 ? latencyNanos : current + alpha * (latencyNanos - current);
+            if (ewmaLatencyBits.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Counts a failure, ejecting the proxy once the threshold is reached. A proxy coming back from ejection is one
+     * failure away from the next one.
+     *
+     * @return whether this failure ejected the proxy
+     */
+    boolean recordFailure(int threshold, long ejectNanos) {
+        if (consecutiveFailures.incrementAndGet() < threshold) {
+            return false;
+        }
+        consecutiveFailures.set(threshold - 1);
+        ejectedUntilNanos = System.nanoTime() + ejectNanos;
+        ejected = true;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return host.toLowerCase(Locale.ROOT) + ":" + port;
+    }
+}
@@ -0,0 +1,186 @@
+package auth.kerberos.example.commons.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Set of interchangeable Kerberos proxies balanced by load and latency.
+ * <p>
+ * Each proxy is scored by its in-flight requests and its latency EWMA, new requests go to the lowest score (ties are
+ * broken by a random starting point). Proxies failing {@code failureThreshold} times in a row are ejected for
+ * {@code ejectMillis}; when every proxy is ejected the one returning first is used anyway rather than failing.
+ * <p>
+ * The pool only tracks state, the client flavors feed it through their own hooks ({@code ProxySelector} and a network
+ * interceptor for okhttp3, route planner and exec chain for apachehc4).
+ */
+public class ProxyPool {
+    public static final double DEFAULT_EWMA_ALPHA = 0.2;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_EJECT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final ProxyEndpoint[] endpoints;
+    private final double ewmaAlpha;
+    private final int failureThreshold;
+    private final long ejectNanos;
+
+    public ProxyPool(List<ProxyEndpoint> endpoints) {
+        this(endpoints, DEFAULT_EWMA_ALPHA, DEFAULT_FAILURE_THRESHOLD, DEFAULT_EJECT_MILLIS);
+    }
+
+    /**
+     * @param ewmaAlpha weight of the newest latency sample, between 0 and 1
+     */
+    public ProxyPool(List<ProxyEndpoint> endpoints, double ewmaAlpha, int failureThreshold, long ejectMillis) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one proxy is required");
+        }
+        this.endpoints = endpoints.toArray(new ProxyEndpoint[0]);
+        this.ewmaAlpha = ewmaAlpha;
+        this.failureThreshold = failureThreshold;
+        this.ejectNanos = TimeUnit.MILLISECONDS.toNanos(ejectMillis);
+    }
+
+    /**
+     * Pool of a single proxy, keeping the plain setup on the same code path.
+     */
+    public static ProxyPool of(String host, int port) {
+        return new ProxyPool(Collections.singletonList(new ProxyEndpoint(host, port)));
+    }
+
+    /**
+     * Parses a comma separated list of {@code host:port}.
+     */
+    public static ProxyPool parse(String proxies) {
+        return new ProxyPool(Arrays.stream(proxies.split(","))
+                .map(ProxyEndpoint::parse)
+                .collect(Collectors.toList()));
+    }
+
+    public List<ProxyEndpoint> endpoints() {
+        return Collections.unmodifiableList(Arrays.asList(endpoints));
+    }
+
+    /**
+     * Best proxy for a new request.
+     */
+    public ProxyEndpoint select() {
+        if (endpoints.length == 1) {
+            return endpoints[0];
+        }
+        long now = System.nanoTime();
+        int start = ThreadLocalRandom.current().nextInt(endpoints.length);
+        ProxyEndpoint best = null;
+        double bestScore = Double.MAX_VALUE;
+        ProxyEndpoint soonestBack = null;
+        for (int i = 0; i < endpoints.length; i++) {
+            ProxyEndpoint endpoint = endpoints[(start + i) % endpoints.length];
+            if (endpoint.isEjected(now)) {
+                if (soonestBack == null || endpoint.ejectedUntilNanos() - soonestBack.ejectedUntilNanos() < 0) {
+                    soonestBack = endpoint;
+                }
+                continue;
+            }
+            double score = endpoint.score();
+            if (score < bestScore) {
+                best = endpoint;
+                bestScore = score;
+            }
+        }
+        return best != null ? best : soonestBack;
+    }
+
+    /**
+     * All proxies, best first and ejected ones last, for clients that fall back down a list on connect failures.
+     */
+    public List<ProxyEndpoint> ranked() {
+        ProxyEndpoint first = select();
+        if (endpoints.length == 1) {
+            return Collections.singletonList(first);
+        }
+        long now = System.nanoTime();
+        List<ProxyEndpoint> rest = new ArrayList<>(endpoints.length);
+        for (ProxyEndpoint endpoint : endpoints) {
+            if (endpoint != first) {
+                rest.add(endpoint);
+            }
+        }
+        rest.sort(Comparator.comparing((ProxyEndpoint e) -> e.isEjected(now)).thenComparingDouble(ProxyEndpoint::score));
+        rest.add(0, first);
+        return rest;
+    }
+
+    /**
+     * Pool entry for the given proxy address, or null when it is not part of the pool.
+     */
+    public ProxyEndpoint find(String host, int port) {
+        for (ProxyEndpoint endpoint : endpoints) {
+            if (endpoint.matches(host, port)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    public boolean contains(String host) {
+        for (ProxyEndpoint endpoint : endpoints) {
+            if (endpoint.getHost().equalsIgnoreCase(host)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A request was sent through the proxy, pair with {@link #succeeded}, {@link #failed} or {@link #cancelled}.
+     */
+    public void started(ProxyEndpoint endpoint) {
+        endpoint.started();
+    }
+
+    public void succeeded(ProxyEndpoint endpoint, long latencyNanos) {
+        endpoint.finished();
+        endpoint.recordSuccess(latencyNanos, ewmaAlpha);
+    }
+
+    public void failed(ProxyEndpoint endpoint) {
+        endpoint.finished();
+        connectFailed(endpoint);
+    }
+
+    /**
+     * A started request was abandoned by the caller, counting neither as success nor failure of the proxy.
+     */
+    public void cancelled(ProxyEndpoint endpoint) {
+        endpoint.finished();
+    }
+
+    /**
+     * Failure outside a started request, e.g. the proxy refusing the TCP connection.
+     */
+    public void connectFailed(ProxyEndpoint endpoint) {
+        if (endpoint.recordFailure(failureThreshold, ejectNanos)) {
+            log.warn("Ejecting proxy {} for {}ms after {} consecutive failures",
+                    endpoint, TimeUnit.NANOSECONDS.toMillis(ejectNanos), failureThreshold);
+        }
+    }
+
+    public String stats() {
+        long now = System.nanoTime();
+        StringBuilder sb = new StringBuilder();
+        for (ProxyEndpoint endpoint : endpoints) {
+            sb.append(String.format("%s inFlight=%d ewma=%.3fms%s%n", endpoint, endpoint.inFlight(),
+                    endpoint.ewmaLatencyNanos() / 1e6, endpoint.isEjected(now) ? " EJECTED" : ""));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,282 @@
+package auth.kerberos.example.commons.security;
+
+import auth.kerberos.example.commons.metrics.AuthMetrics;
+import auth.kerberos.example.commons.metrics.AuthMetricsRegistry;
+import org.ietf.jgss.GSSException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fail-fast policy for the Kerberos auth path, so a slow or unreachable KDC is not hammered by every concurrent call.
+ * <p>
+ * Failures are tracked per target: a proxy host for {@link SpnegoEngine} token generation, the client login for
+ * {@link KerberosCredentialManager}. A failure is cached for a short while, callers of the same target get it back
+ * right away instead of trying again. After {@code failureThreshold} consecutive failures the circuit opens for a fully
+ * jittered exponential backoff, then lets a single caller through as a half-open probe while the others keep failing
+ * fast. The first success closes the circuit. During an outage the KDC sees about one attempt per backoff period and
+ * target, whatever the number of calls.
+ * <p>
+ * Token generation is also bounded by a deadline, so calls fail once the KDC stops answering instead of queueing up
+ * behind it.
+ * <p>
+ * Notes:
+ * - Fast failures are {@link GSSException}s with the major code of the cached failure, which is set as their cause
+ * - Engines only report their own token failures, login failures (fast or not) stay on the {@link #LOGIN_TARGET}. A
+ *   service ticket request that failed along with the login counts against the proxy until the login recovers
+ * - The deadline applies to engines with a {@link GssWorkerPool}, work on the calling thread cannot be abandoned
+ * - Failures of calls running concurrently count once, only the time windows that failed make the backoff grow
+ */
+public class AuthFailurePolicy {
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_NEGATIVE_CACHE_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    public static final long DEFAULT_BACKOFF_BASE_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    public static final long DEFAULT_BACKOFF_MAX_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    public static final long DEFAULT_TOKEN_DEADLINE_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    /*
+     * Target of the KDC login of a KerberosCredentialManager
+     * */
+    public static final String LOGIN_TARGET = "login";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+    /*
+     * Bumped every time the login target recovers, releasing the failures recorded as depending on it
+     * */
+    private final AtomicLong loginRecoveries = new AtomicLong();
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long negativeCacheMillis = DEFAULT_NEGATIVE_CACHE_MILLIS;
+    private long backoffBaseMillis = DEFAULT_BACKOFF_BASE_MILLIS;
+    private long backoffMaxMillis = DEFAULT_BACKOFF_MAX_MILLIS;
+    private long tokenDeadlineMillis = DEFAULT_TOKEN_DEADLINE_MILLIS;
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * Consecutive failures opening the circuit.
+     */
+    public AuthFailurePolicy setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+        return this;
+    }
+
+    public long getNegativeCacheMillis() {
+        return negativeCacheMillis;
+    }
+
+    /**
+     * How long a failure is handed back to the callers of its target while the circuit is still closed.
+     */
+    public AuthFailurePolicy setNegativeCacheMillis(long negativeCacheMillis) {
+        this.negativeCacheMillis = negativeCacheMillis;
+        return this;
+    }
+
+    public long getBackoffBaseMillis() {
+        return backoffBaseMillis;
+    }
+
+    /**
+     * First open period, doubled on every failed probe up to the maximum and fully jittered.
+     */
+    public AuthFailurePolicy setBackoffBaseMillis(long backoffBaseMillis) {
+        this.backoffBaseMillis = backoffBaseMillis;
+        return this;
+    }
+
+    public long getBackoffMaxMillis() {
+        return backoffMaxMillis;
+    }
+
+    public AuthFailurePolicy setBackoffMaxMillis(long backoffMaxMillis) {
+        this.backoffMaxMillis = backoffMaxMillis;
+        return this;
+    }
+
+    public long getTokenDeadlineMillis() {
+        return tokenDeadlineMillis;
+    }
+
+    /**
+     * Maximum wait for the GSS work of a token (worker pool queue included), 0 waits forever.
+     */
+    public AuthFailurePolicy setTokenDeadlineMillis(long tokenDeadlineMillis) {
+        this.tokenDeadlineMillis = tokenDeadlineMillis;
+        return this;
+    }
+
+    /**
+     * Lets the call on the given target go on, or throws the cached failure while the target is failing fast.
+     */
+    public void check(String target) throws GSSException {
+        Circuit circuit = circuits.get(target);
+        if (circuit != null) {
+            circuit.check();
+        }
+    }
+
+    /**
+     * Reports a successful call, closing the circuit of the target.
+     */
+    public void succeeded(String target) {
+        Circuit circuit = circuits.get(target);
+        if (circuit != null && circuit.succeeded() && LOGIN_TARGET.equals(target)) {
+            loginRecoveries.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reports a failed call, caching the failure and opening the circuit once the threshold is reached.
+     */
+    public void failed(String target, GSSException failure) {
+        failed(target, failure, false);
+    }
+
+    /**
+     * @param dependsOnLogin whether the failure came with a failed login, the target then recovers with the login
+     */
+    public void failed(String target, GSSException failure, boolean dependsOnLogin) {
+        Circuit circuit = circuits.get(target);
+        if (circuit == null) {
+            circuit = circuits.computeIfAbsent(target, Circuit::new);
+        }
+        circuit.failed(failure, dependsOnLogin ? loginRecoveries.get() : -1);
+    }
+
+    /**
+     * Whether calls on the given target currently fail fast.
+     */
+    public boolean isFailingFast(String target) {
+        Circuit circuit = circuits.get(target);
+        return circuit != null && circuit.isFailingFast();
+    }
+
+    private long backoffNanos(int failures) {
+        long ceiling = Math.min(backoffMaxMillis, backoffBaseMillis << Math.min(failures - failureThreshold, 20));
+        return TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
+
+    private final class Circuit {
+        private final String target;
+        private final AuthMetricsRegistry.Counter fastFailures;
+        private final AuthMetricsRegistry.Counter opens;
+        private volatile int failures;
+        private long blockedUntilNanos;
+        private boolean probing;
+        private GSSException lastFailure;
+        private long loginRecoveryAtFailure = -1;
+
+        private Circuit(String target) {
+            this.target = target;
+            this.fastFailures = AuthMetrics.registry().counter(AuthMetrics.AUTH_FAST_FAILURES, target);
+            this.opens = AuthMetrics.registry().counter(AuthMetrics.AUTH_CIRCUIT_OPENS, target);
+        }
+
+        void check() throws GSSException {
+            if (failures == 0) {
+                return;
+            }
+            synchronized (this) {
+                if (failures == 0) {
+                    return;
+                }
+                if (loginRecoveryAtFailure >= 0 && loginRecoveries.get() != loginRecoveryAtFailure) {
+                    // Failing because of the login, which recovered since
+                    reset();
+                    return;
+                }
+                long now = System.nanoTime();
+                long remaining = blockedUntilNanos - now;
+                if (remaining > 0) {
+                    fastFailures.increment();
+                    throw fastFailure(remaining);
+                }
+                if (failures >= failureThreshold) {
+                    // Half-open: this caller probes, the others fail fast until it reports back or the window elapses
+                    probing = true;
+                    blockedUntilNanos = now + TimeUnit.MILLISECONDS.toNanos(backoffMaxMillis);
+                }
+            }
+        }
+
+        /**
+         * @return whether the target was failing
+         */
+        boolean succeeded() {
+            if (failures == 0) {
+                return false;
+            }
+            synchronized (this) {
+                if (failures == 0) {
+                    return false;
+                }
+                if (failures >= failureThreshold) {
+                    log.info("Kerberos auth for '{}' recovered, closing the circuit", target);
+                }
+                reset();
+                return true;
+            }
+        }
+
+        private void reset() {
+            failures = 0;
+            probing = false;
+            lastFailure = null;
+            loginRecoveryAtFailure = -1;
+        }
+
+        synchronized void failed(GSSException failure, long loginRecovery) {
+            long now = System.nanoTime();
+            lastFailure = failure;
+            loginRecoveryAtFailure = loginRecovery;
+            if (!probing && failures > 0 && blockedUntilNanos - now > 0) {
+                // A concurrent call of the same window failed already
+                return;
+            }
+            probing = false;
+            int count = ++failures;
+            if (count < failureThreshold) {
+                blockedUntilNanos = now + TimeUnit.MILLISECONDS.toNanos(negativeCacheMillis);
+                return;
+            }
+            long backoff = backoffNanos(count);
+            blockedUntilNanos = now + backoff;
+            opens.increment();
+            if (count == failureThreshold) {
+                log.warn("Kerberos auth for '{}' failed {} times in a row, failing fast for {}ms: {}",
+                        target, count, TimeUnit.NANOSECONDS.toMillis(backoff), failure.getMessage());
+            } else {
+                log.debug("Kerberos auth probe for '{}' failed, failing fast for {}ms", target,
+                        TimeUnit.NANOSECONDS.toMillis(backoff));
+            }
+        }
+
+        synchronized boolean isFailingFast() {
+            return failures > 0 && blockedUntilNanos - System.nanoTime() > 0;
+        }
+
+        private GSSException fastFailure(long remainingNanos) {
+            GSSException failure = new FastFailure(lastFailure.getMajor(), String.format(
+                    "Failing fast on '%s' for %dms after: %s",
+                    target, TimeUnit.NANOSECONDS.toMillis(remainingNanos), lastFailure.getMessage()));
+            failure.initCause(lastFailure);
+            return failure;
+        }
+    }
+
+    /**
+     * Failure handed back from the cache, not a new attempt.
+     */
+    static final class FastFailure extends GSSException {
+        private FastFailure(int major, String message) {
+            super(major, -1, message);
+        }
+    }
+}
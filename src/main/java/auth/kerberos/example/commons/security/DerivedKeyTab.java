@@ -0,0 +1,235 @@
+package auth.kerberos.example.commons.security;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.DestroyFailedException;
+import javax.security.auth.kerberos.KerberosKey;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.login.Configuration;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Client keys derived once from the password, for logins that never run the string-to-key function again.
+ * <p>
+ * Each password login makes Krb5LoginModule derive the keys (PBKDF2 with thousands of iterations for AES) before the
+ * AS-REQ. Here the {@link KerberosKey}s are derived at startup and the password array is cleared. Krb5LoginModule only
+ * takes keys from a keytab file, so the keys are written to a temporary keytab, in a directory of its own that only
+ * the owner can enter, and every later login reads them from there. {@link #close()} destroys the keys and overwrites
+ * the file with zeros before deleting it and its directory. A shutdown hook does the same if the JVM exits without
+ * closing.
+ * <p>
+ * Notes:
+ * - A killed JVM (SIGKILL, crash) runs no hook, the keys then stay in the owner-only directory until it is removed
+ * - Keys use the default salt (realm + principal name), as KDCs do unless the principal has a custom salt
+ * - The key version is written as 0, which matches whatever version the KDC reports
+ */
+public class DerivedKeyTab implements Closeable {
+    public static final String[] DEFAULT_ALGORITHMS = {"AES256", "AES128"};
+    private static final int KRB_NT_PRINCIPAL = 1;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final KerberosPrincipal principal;
+    private final List<KerberosKey> keys;
+    private final Path directory;
+    private final Path path;
+    private final Thread cleanup;
+    private volatile boolean closed;
+
+    private DerivedKeyTab(KerberosPrincipal principal, List<KerberosKey> keys, Path directory) {
+        this.principal = principal;
+        this.keys = keys;
+        this.directory = directory;
+        this.path = directory.resolve("client.keytab");
+        this.cleanup = new Thread(this::closeQuietly, "derived-keytab-cleanup");
+    }
+
+    /**
+     * Derives the keys of the given principal for {@link #DEFAULT_ALGORITHMS} and clears the password.
+     */
+    public static DerivedKeyTab derive(String principal, char[] password) throws IOException {
+        return derive(principal, password, DEFAULT_ALGORITHMS);
+    }
+
+    /**
+     * @param algorithms {@link KerberosKey} algorithm names, in the order the keys are offered
+     */
+    public static DerivedKeyTab derive(String principal, char[] password, String... algorithms) throws IOException {
+        KerberosPrincipal kerberosPrincipal = new KerberosPrincipal(principal, KerberosPrincipal.KRB_NT_PRINCIPAL);
+        List<KerberosKey> keys = new ArrayList<>(algorithms.length);
+        try {
+            for (String algorithm : algorithms) {
+                keys.add(new KerberosKey(kerberosPrincipal, password, algorithm));
+            }
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        Path directory = posix
+                ? Files.createTempDirectory("krb5-", ownerOnly("rwx------"))
+                : Files.createTempDirectory("krb5-");
+        DerivedKeyTab keyTab = new DerivedKeyTab(kerberosPrincipal, keys, directory);
+        Runtime.getRuntime().addShutdownHook(keyTab.cleanup);
+        try {
+            if (posix) {
+                Files.createFile(keyTab.path, ownerOnly("rw-------"));
+            } else {
+                Files.createFile(keyTab.path);
+            }
+            keyTab.write();
+        } catch (IOException | RuntimeException e) {
+            keyTab.close();
+            throw e;
+        }
+        return keyTab;
+    }
+
+    public String getPrincipal() {
+        return principal.getName();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * JAAS configuration logging in from the derived keys.
+     */
+    public Configuration configuration() {
+        return KerberosCredentialManager.keytabConfiguration(getPrincipal(), path.toString());
+    }
+
+    /*
+     * Keytab format version 0x0502: entries of (size, principal, timestamp, 8-bit kvno, keyblock, 32-bit kvno)
+     * */
+    private void write() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(0x0502);
+
+        String name = principal.getName();
+        int at = name.lastIndexOf('@');
+        String[] components = (at >= 0 ? name.substring(0, at) : name).split("/");
+        int timestamp = (int) (System.currentTimeMillis() / 1000);
+        for (KerberosKey key : keys) {
+            ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+            DataOutputStream entry = new DataOutputStream(entryBytes);
+            entry.writeShort(components.length);
+            writeCounted(entry, principal.getRealm().getBytes(StandardCharsets.UTF_8));
+            for (String component : components) {
+                writeCounted(entry, component.getBytes(StandardCharsets.UTF_8));
+            }
+            entry.writeInt(KRB_NT_PRINCIPAL);
+            entry.writeInt(timestamp);
+            entry.writeByte(0);
+            entry.writeShort(key.getKeyType());
+            byte[] encoded = key.getEncoded();
+            try {
+                writeCounted(entry, encoded);
+            } finally {
+                Arrays.fill(encoded, (byte) 0);
+            }
+            entry.writeInt(0);
+            out.writeInt(entryBytes.size());
+            writeAndClear(entryBytes, out);
+        }
+
+        byte[] content = bytes.toByteArray();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(content));
+            channel.force(true);
+        } finally {
+            Arrays.fill(content, (byte) 0);
+            clear(bytes);
+        }
+    }
+
+    private static FileAttribute<?> ownerOnly(String permissions) {
+        return PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(permissions));
+    }
+
+    private static void writeCounted(DataOutputStream out, byte[] data) throws IOException {
+        out.writeShort(data.length);
+        out.write(data);
+    }
+
+    private static void writeAndClear(ByteArrayOutputStream source, DataOutputStream target) throws IOException {
+        byte[] data = source.toByteArray();
+        try {
+            target.write(data);
+        } finally {
+            Arrays.fill(data, (byte) 0);
+            clear(source);
+        }
+    }
+
+    /**
+     * Overwrites the internal buffer of the stream, which still holds key bytes after toByteArray().
+     */
+    private static void clear(ByteArrayOutputStream stream) {
+        int size = stream.size();
+        stream.reset();
+        for (int i = 0; i < size; i++) {
+            stream.write(0);
+        }
+        stream.reset();
+    }
+
+    /**
+     * Destroys the keys, then zeroes and deletes the keytab file and its directory.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (Thread.currentThread() != cleanup) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(cleanup);
+            } catch (IllegalStateException e) {
+                // Shutting down, the hook may be running already and waits for this call to finish
+            }
+        }
+        for (KerberosKey key : keys) {
+            try {
+                key.destroy();
+            } catch (DestroyFailedException ignored) {
+                // Already destroyed
+            }
+        }
+        if (Files.exists(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[(int) channel.size()]), 0);
+                channel.force(true);
+            } finally {
+                Files.delete(path);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            log.warn("Unable to wipe the derived keytab {}", path, e);
+        }
+    }
+}
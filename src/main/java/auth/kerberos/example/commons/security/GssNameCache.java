@@ -0,0 +1,224 @@
+package auth.kerberos.example.commons.security;
+
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cache of canonicalized service principal names, keyed by (service, host, mechanism OID).
+ * <p>
+ * Canonicalizing a host-based service name may trigger forward and reverse DNS lookups for the host, which would
+ * otherwise happen on every token. Entries live for the configured TTL; with async refresh enabled an expired entry
+ * keeps being served while a background thread resolves it again, so DNS latency never reaches the caller. Concurrent
+ * callers missing the same name wait for a single resolution.
+ * <p>
+ * Notes:
+ * - With canonicalization disabled the SPN is built verbatim as {@code service/host} (Kerberos principal name type),
+ * skipping DNS entirely. Use it for proxies whose SPN is known to match the configured host name
+ */
+public class GssNameCache implements Closeable {
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    /*
+     * Kerberos V5 principal name type OID. See https://oidref.com/1.2.840.113554.1.2.2.1
+     * */
+    private static final String KRB5_NT_PRINCIPAL_NAME_OIDSTR = "1.2.840.113554.1.2.2.1";
+    private static final Oid KRB5_NT_PRINCIPAL_NAME;
+
+    static {
+        try {
+            KRB5_NT_PRINCIPAL_NAME = new Oid(KRB5_NT_PRINCIPAL_NAME_OIDSTR);
+        } catch (GSSException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Map<Key, Entry> names = new ConcurrentHashMap<>();
+    /*
+     * Resolutions run by a caller, joined by the other callers of the same key
+     * */
+    private final Map<Key, CompletableFuture<GSSName>> resolving = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final boolean canonicalize;
+    private final ExecutorService refresher;
+
+    public GssNameCache() {
+        this(DEFAULT_TTL_MILLIS, true, true);
+    }
+
+    /**
+     * @param canonicalize whether to canonicalize host-based names (possibly via DNS) or use {@code service/host} as is
+     * @param asyncRefresh whether expired entries are refreshed in the background while still being served
+     */
+    public GssNameCache(final long ttlMillis, final boolean canonicalize, final boolean asyncRefresh) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.canonicalize = canonicalize;
+        this.refresher = asyncRefresh
+                ? Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "gss-name-refresh");
+                    t.setDaemon(true);
+                    return t;
+                })
+                : null;
+    }
+
+    public GSSName get(final String serviceName, final String host, final Oid mechOid) throws GSSException {
+        Key key = new Key(serviceName, host, mechOid);
+        Entry entry = names.get(key);
+        if (entry != null && isFresh(entry)) {
+            return entry.name;
+        }
+        if (entry != null && refresher != null) {
+            scheduleRefresh(key, entry);
+            return entry.name;
+        }
+        return resolveOnce(key);
+    }
+
+    public void invalidate(final String serviceName, final String host, final Oid mechOid) {
+        names.remove(new Key(serviceName, host, mechOid));
+    }
+
+    @Override
+    public void close() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+        names.clear();
+    }
+
+    /*
+     * Single-flight resolution on the calling thread. Not in computeIfAbsent, which must not run lookups that can block
+     * on DNS
+     * */
+    private GSSName resolveOnce(final Key key) throws GSSException {
+        CompletableFuture<GSSName> created = new CompletableFuture<>();
+        CompletableFuture<GSSName> current = resolving.putIfAbsent(key, created);
+        if (current != null) {
+            return await(current);
+        }
+        try {
+            // A resolution may have completed between the lookup and the registration
+            Entry entry = names.get(key);
+            GSSName name = entry != null && isFresh(entry) ? entry.name : resolve(key);
+            if (entry == null || entry.name != name) {
+                names.put(key, new Entry(name));
+            }
+            created.complete(name);
+            return name;
+        } catch (GSSException | RuntimeException e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            resolving.remove(key, created);
+        }
+    }
+
+    private static GSSName await(final CompletableFuture<GSSName> resolution) throws GSSException {
+        try {
+            return resolution.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof GSSException) {
+                throw (GSSException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private boolean isFresh(final Entry entry) {
+        return System.nanoTime() - entry.resolvedNanos < ttlNanos;
+    }
+
+    private void scheduleRefresh(final Key key, final Entry stale) {
+        if (!stale.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refresher.execute(() -> {
+                try {
+                    names.replace(key, stale, new Entry(resolve(key)));
+                } catch (GSSException | RuntimeException e) {
+                    log.warn("Unable to refresh service principal name {}, keeping the previous one", key, e);
+                    stale.refreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            stale.refreshing.set(false);
+        }
+    }
+
+    private GSSName resolve(final Key key) throws GSSException {
+        GSSManager manager = GSSManager.getInstance();
+        GSSName name = canonicalize
+                ? manager.createName(key.serviceName + "@" + key.host, GSSName.NT_HOSTBASED_SERVICE)
+                : manager.createName(key.serviceName + "/" + key.host, KRB5_NT_PRINCIPAL_NAME);
+        return name.canonicalize(key.mechOid);
+    }
+
+    private static final class Entry {
+        private final GSSName name;
+        private final long resolvedNanos;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(GSSName name) {
+            this.name = name;
+            this.resolvedNanos = System.nanoTime();
+        }
+    }
+
+    private static final class Key {
+        private final String serviceName;
+        private final String host;
+        private final Oid mechOid;
+        private final int hash;
+
+        private Key(String serviceName, String host, Oid mechOid) {
+            this.serviceName = serviceName;
+            this.host = host;
+            this.mechOid = mechOid;
+            this.hash = Objects.hash(serviceName, this.host, mechOid);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return serviceName.equals(other.serviceName)
+                    && host.equals(other.host)
+                    && mechOid.equals(other.mechOid);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return serviceName + "@" + host + " (" + mechOid + ")";
+        }
+    }
+}
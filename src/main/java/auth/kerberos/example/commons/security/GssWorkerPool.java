@@ -0,0 +1,118 @@
+package auth.kerberos.example.commons.security;
+
+import org.ietf.jgss.GSSException;
+
+import java.io.Closeable;
+import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool running the CPU-heavy GSS work ({@code initSecContext}) on a fixed number of threads.
+ * <p>
+ * Callers block until their task completes, so the pool acts as a concurrency limit for token generation: a burst of
+ * authentication requests queues here instead of running on every HTTP dispatcher thread at once. Tasks beyond the
+ * queue capacity are rejected with a {@link GSSException}.
+ */
+public class GssWorkerPool implements Closeable {
+    public static final int DEFAULT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private final ThreadPoolExecutor executor;
+
+    public GssWorkerPool() {
+        this(DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public GssWorkerPool(final int threads, final int queueCapacity) {
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "gss-worker-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Runs the given GSS task on the pool and waits for its result.
+     */
+    public <T> T execute(final PrivilegedExceptionAction<T> task) throws GSSException {
+        return execute(task, 0);
+    }
+
+    /**
+     * Runs the given GSS task on the pool, waiting at most the given time (queueing included) for its result. A task
+     * past its deadline is cancelled and fails with a {@link GSSException}.
+     *
+     * @param deadlineMillis maximum wait, 0 waits forever
+     */
+    public <T> T execute(final PrivilegedExceptionAction<T> task, final long deadlineMillis) throws GSSException {
+        Future<T> future;
+        try {
+            future = executor.submit(task::run);
+        } catch (RejectedExecutionException e) {
+            throw new GSSException(GSSException.UNAVAILABLE, -1, "GSS worker pool saturated");
+        }
+
+        try {
+            return deadlineMillis > 0 ? future.get(deadlineMillis, TimeUnit.MILLISECONDS) : future.get();
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new GSSException(GSSException.UNAVAILABLE, -1, "GSS task exceeded its " + deadlineMillis + "ms deadline");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new GSSException(GSSException.FAILURE, -1, "Interrupted while waiting for GSS worker");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GSSException) {
+                throw (GSSException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Runs the given GSS task on the pool without waiting, for callers that must not block (e.g. NIO reactor threads).
+     * A saturated pool fails the returned future with a {@link GSSException}.
+     * <p>
+     * Tasks must not wait on this same pool themselves, so engines used from here need no worker pool of their own.
+     */
+    public <T> CompletableFuture<T> submit(final PrivilegedExceptionAction<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(task.run());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new GSSException(GSSException.UNAVAILABLE, -1, "GSS worker pool saturated"));
+        }
+        return result;
+    }
+
+    public int queuedTasks() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
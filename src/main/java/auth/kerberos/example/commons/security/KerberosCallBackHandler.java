@@ -1,5 +1,7 @@
 package auth.kerberos.example.commons.security;
 
+import auth.kerberos.example.commons.metrics.AuthMetrics;
+
 import javax.security.auth.callback.*;
 import java.security.Security;
 
@@ -31,6 +33,8 @@ public class KerberosCallBackHandler implements CallbackHandler {
                 nc.setName(user);
             } else if (callback instanceof PasswordCallback) {
                 PasswordCallback pc = (PasswordCallback) callback;
+                // A password request means a password login against the KDC is underway
+                AuthMetrics.registry().counter(AuthMetrics.CALLBACK_LOGINS, AuthMetrics.NO_HOST).increment();
                 pc.setPassword(password.toCharArray());
             } else {
                 throw new UnsupportedCallbackException(callback, "Unknown auth Callback");
@@ -0,0 +1,585 @@
+package auth.kerberos.example.commons.security;
+
+import auth.kerberos.example.commons.metrics.AuthMetrics;
+import auth.kerberos.example.commons.metrics.AuthMetricsRegistry;
+import org.ietf.jgss.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.Subject;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginContext;
+import javax.security.auth.login.LoginException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived Kerberos credential holder.
+ * <p>
+ * Performs a single JAAS login (Krb5LoginModule) into a shared {@link Subject}, keeps the TGT and the service tickets
+ * obtained for every registered proxy in that subject, and renews both from a background thread before they expire.
+ * GSS operations executed through {@link #doAs(PrivilegedExceptionAction)} therefore reuse the cached tickets instead
+ * of hitting the KDC on every SPNEGO challenge.
+ * <p>
+ * Logins run in one of the {@link LoginMode}s: a password answered by the callback handler, a keytab, or keys derived
+ * from the password once at startup ({@link DerivedKeyTab}). The key modes make re-logins cheap, with no string-to-key
+ * derivation and no password kept in {@code Security} properties.
+ * <p>
+ * With a login {@link AuthFailurePolicy}, a failed login is handed back to the callers waiting for credentials instead
+ * of each of them logging in again, and repeated failures back off until a single probe login gets through.
+ * <p>
+ * Notes:
+ * - JGSS only reads and stores tickets in the subject when {@code javax.security.auth.useSubjectCredsOnly} is true
+ * - Swapping the subject on renewal is atomic, in-flight GSS operations keep using the previous one until they finish
+ */
+public class KerberosCredentialManager implements Closeable {
+    public static final String LOGIN_CONTEXT_NAME = "kerberos-auth-example";
+    public static final long DEFAULT_REFRESH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    /*
+     * Fraction of a ticket lifetime after which it is considered due for renewal.
+     * */
+    public static final double DEFAULT_RENEW_WINDOW = 0.8;
+    private static final long LOGOUT_GRACE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Where the client keys come from on every login.
+     */
+    public enum LoginMode {
+        /**
+         * Password from the callback handler, keys derived by Krb5LoginModule on each login.
+         */
+        PASSWORD,
+        /**
+         * Keys read from a keytab file.
+         */
+        KEYTAB,
+        /**
+         * Keys derived from the password once, see {@link DerivedKeyTab}.
+         */
+        DERIVED_KEYS
+    }
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final CallbackHandler callbackHandler;
+    private final Configuration configuration;
+    private final double renewWindow;
+    private final Map<String, ServicePrincipal> servicePrincipals = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Closeable loginKeys;
+    /*
+     * Counts login attempts against the KDC, failed ones included
+     * */
+    private final AuthMetricsRegistry.Counter kdcLoginAttempts =
+            AuthMetrics.registry().counter(AuthMetrics.KDC_LOGINS, AuthMetrics.NO_HOST);
+
+    private volatile LoginState state;
+    private volatile AuthFailurePolicy loginFailurePolicy;
+
+    public KerberosCredentialManager() {
+        this(new KerberosCallBackHandler(), passwordConfiguration(), DEFAULT_RENEW_WINDOW, DEFAULT_REFRESH_INTERVAL_MILLIS);
+    }
+
+    public KerberosCredentialManager(final CallbackHandler callbackHandler,
+                                     final Configuration configuration,
+                                     final double renewWindow,
+                                     final long refreshIntervalMillis) {
+        this(callbackHandler, configuration, renewWindow, refreshIntervalMillis, null);
+    }
+
+    /**
+     * @param loginKeys key material the configuration logs in with, owned by the manager and closed with it, or null
+     */
+    public KerberosCredentialManager(final CallbackHandler callbackHandler,
+                                     final Configuration configuration,
+                                     final double renewWindow,
+                                     final long refreshIntervalMillis,
+                                     final Closeable loginKeys) {
+        this.callbackHandler = callbackHandler;
+        this.configuration = configuration;
+        this.renewWindow = renewWindow;
+        this.loginKeys = loginKeys;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "kerberos-credential-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::refresh,
+                refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Manager logging in with the given mode.
+     *
+     * @param principal   client principal, unused in {@link LoginMode#PASSWORD} mode where the callback handler names it
+     * @param password    cleared once used, unused in {@link LoginMode#KEYTAB} mode
+     * @param keytabPath  keytab file of the {@link LoginMode#KEYTAB} mode
+     */
+    public static KerberosCredentialManager create(final LoginMode mode,
+                                                   final String principal,
+                                                   final char[] password,
+                                                   final String keytabPath) throws IOException {
+        switch (mode) {
+            case KEYTAB:
+                return withKeytab(principal, keytabPath);
+            case DERIVED_KEYS:
+                return withDerivedKeys(principal, password);
+            default:
+                return new KerberosCredentialManager();
+        }
+    }
+
+    public static KerberosCredentialManager withKeytab(final String principal, final String keytabPath) {
+        return new KerberosCredentialManager(null, keytabConfiguration(principal, keytabPath),
+                DEFAULT_RENEW_WINDOW, DEFAULT_REFRESH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Manager logging in from keys derived once from the given password, which is cleared. The keys are destroyed on
+     * {@link #close()}.
+     */
+    public static KerberosCredentialManager withDerivedKeys(final String principal,
+                                                            final char[] password) throws IOException {
+        DerivedKeyTab keyTab = DerivedKeyTab.derive(principal, password);
+        return new KerberosCredentialManager(null, keyTab.configuration(),
+                DEFAULT_RENEW_WINDOW, DEFAULT_REFRESH_INTERVAL_MILLIS, keyTab);
+    }
+
+    /**
+     * Fail-fast policy of the on-demand logins (first use and expired credentials), or null to log in on every demand.
+     * Background renewals always run, a successful one closes the circuit.
+     */
+    public KerberosCredentialManager setLoginFailurePolicy(final AuthFailurePolicy loginFailurePolicy) {
+        this.loginFailurePolicy = loginFailurePolicy;
+        return this;
+    }
+
+    /**
+     * JAAS configuration for a Krb5LoginModule password login, answered by the given callback handler.
+     */
+    public static Configuration passwordConfiguration() {
+        Map<String, String> options = new HashMap<>();
+        options.put("useTicketCache", "false");
+        options.put("doNotPrompt", "false");
+        options.put("storeKey", "false");
+        options.put("isInitiator", "true");
+        return staticConfiguration(options);
+    }
+
+    /**
+     * JAAS configuration for a Krb5LoginModule keytab login, which never prompts.
+     */
+    public static Configuration keytabConfiguration(final String principal, final String keytabPath) {
+        Map<String, String> options = new HashMap<>();
+        options.put("useKeyTab", "true");
+        options.put("keyTab", keytabPath);
+        options.put("principal", principal);
+        options.put("useTicketCache", "false");
+        options.put("doNotPrompt", "true");
+        options.put("storeKey", "false");
+        options.put("isInitiator", "true");
+        return staticConfiguration(options);
+    }
+
+    static Configuration staticConfiguration(final Map<String, String> options) {
+        final AppConfigurationEntry[] entries = new AppConfigurationEntry[]{
+                new AppConfigurationEntry("com.sun.security.auth.module.Krb5LoginModule",
+                        AppConfigurationEntry.LoginModuleControlFlag.REQUIRED,
+                        options)
+        };
+        return new Configuration() {
+            @Override
+            public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+                return entries;
+            }
+        };
+    }
+
+    /**
+     * Logs in against the KDC and publishes the new subject, replacing (and logging out) the previous one.
+     */
+    public synchronized void login() throws LoginException {
+        AuthFailurePolicy policy = this.loginFailurePolicy;
+        try {
+            doLogin();
+        } catch (LoginException e) {
+            if (policy != null) {
+                policy.failed(AuthFailurePolicy.LOGIN_TARGET, loginFailure(e));
+            }
+            throw e;
+        }
+        if (policy != null) {
+            policy.succeeded(AuthFailurePolicy.LOGIN_TARGET);
+        }
+    }
+
+    private void doLogin() throws LoginException {
+        LoginContext loginContext = new LoginContext(LOGIN_CONTEXT_NAME, new Subject(), callbackHandler, configuration);
+        kdcLoginAttempts.increment();
+        loginContext.login();
+        Subject subject = loginContext.getSubject();
+
+        GSSCredential credential;
+        try {
+            credential = Subject.doAs(subject, (PrivilegedExceptionAction<GSSCredential>) () ->
+                    GSSManager.getInstance().createCredential(
+                            null,
+                            GSSCredential.DEFAULT_LIFETIME,
+                            new Oid[]{SpnegoEngine.GSS_SPNEGO_MECH_OID, SpnegoEngine.GSS_KRB5_MECH_OID},
+                            GSSCredential.INITIATE_ONLY));
+        } catch (PrivilegedActionException e) {
+            loginContext.logout();
+            LoginException le = new LoginException("Unable to acquire initiator credential");
+            le.initCause(e.getException());
+            throw le;
+        }
+
+        LoginState previous = this.state;
+        this.state = new LoginState(loginContext, subject, credential);
+        log.debug("Kerberos login completed for {}", subject.getPrincipals());
+
+        // Warm the new subject up from the scheduler, off the login lock, well before the old one goes away
+        for (ServicePrincipal servicePrincipal : servicePrincipals.values()) {
+            schedulePrefetch(servicePrincipal);
+        }
+        if (previous != null) {
+            // Give in-flight GSS operations on the previous subject time to finish before destroying its tickets
+            scheduler.schedule(previous::logout, LOGOUT_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Logs in again unless another caller already replaced the given stale credential, so a burst of callers hitting
+     * an expired credential triggers a single KDC login.
+     */
+    public void relogin(final GSSCredential stale) throws GSSException {
+        // Fail fast before queueing behind a login that may hang on the KDC
+        checkLoginPolicy();
+        synchronized (this) {
+            LoginState current = this.state;
+            if (current != null && current.credential != stale) {
+                return;
+            }
+            checkLoginPolicy();
+            try {
+                login();
+            } catch (LoginException e) {
+                throw loginFailure(e);
+            }
+        }
+    }
+
+    /**
+     * Runs the given GSS action as the logged in subject, logging in first if no login happened yet.
+     */
+    public <T> T doAs(final PrivilegedExceptionAction<T> action) throws GSSException {
+        LoginState current = currentState();
+        try {
+            return Subject.doAs(current.subject, action);
+        } catch (PrivilegedActionException e) {
+            if (e.getException() instanceof GSSException) {
+                throw (GSSException) e.getException();
+            }
+            throw new RuntimeException(e.getException());
+        }
+    }
+
+    /**
+     * Initiator credential bound to the current subject TGT.
+     */
+    public GSSCredential getCredential() throws GSSException {
+        return currentState().credential;
+    }
+
+    /**
+     * Registers a service principal whose ticket is kept warm in the shared subject. Registrations are counted, engines
+     * sharing an SPN (e.g. with different mechanisms) each register it and unregister it once.
+     */
+    public void registerServicePrincipal(final GSSName servicePrincipal) {
+        ServicePrincipal[] created = new ServicePrincipal[1];
+        servicePrincipals.compute(servicePrincipal.toString(), (name, current) -> {
+            if (current == null) {
+                created[0] = new ServicePrincipal(servicePrincipal);
+                return created[0];
+            }
+            current.users++;
+            return current;
+        });
+        if (created[0] != null) {
+            schedulePrefetch(created[0]);
+        }
+    }
+
+    /**
+     * Drops a registration of the given service principal. Once the last one goes, the ticket is no longer kept warm
+     * and is destroyed from the shared subject.
+     */
+    public void unregisterServicePrincipal(final GSSName servicePrincipal) {
+        ServicePrincipal[] released = new ServicePrincipal[1];
+        servicePrincipals.computeIfPresent(servicePrincipal.toString(), (name, current) -> {
+            if (--current.users > 0) {
+                return current;
+            }
+            released[0] = current;
+            return null;
+        });
+        if (released[0] == null) {
+            return;
+        }
+        LoginState current = this.state;
+        if (current != null) {
+            // Concurrent first calls may each have stored a ticket for the SPN
+            KerberosTicket ticket;
+            while ((ticket = findTicket(current.subject, released[0])) != null) {
+                current.subject.getPrivateCredentials().remove(ticket);
+            }
+        }
+    }
+
+    public boolean isLoggedIn() {
+        return state != null;
+    }
+
+    /**
+     * Whether the shared subject holds a current ticket for the given service principal, so a context initiated for it
+     * needs no KDC round-trip.
+     */
+    public boolean hasServiceTicket(final GSSName servicePrincipal) {
+        LoginState current = this.state;
+        if (current == null) {
+            return false;
+        }
+        ServicePrincipal registered = servicePrincipals.get(servicePrincipal.toString());
+        // Registered principals keep their resolved ticket server name, others are resolved on every call
+        KerberosTicket ticket = findTicket(current.subject,
+                registered != null ? registered : new ServicePrincipal(servicePrincipal));
+        return ticket != null && ticket.isCurrent();
+    }
+
+    /**
+     * Name of the logged in client principal, logging in first if no login happened yet.
+     */
+    public String getPrincipalName() throws GSSException {
+        return currentState().principalName;
+    }
+
+    @Override
+    public synchronized void close() {
+        scheduler.shutdownNow();
+        LoginState current = this.state;
+        this.state = null;
+        if (current != null) {
+            current.logout();
+        }
+        if (loginKeys != null) {
+            try {
+                loginKeys.close();
+            } catch (IOException e) {
+                log.warn("Unable to release the login keys", e);
+            }
+        }
+    }
+
+    private LoginState currentState() throws GSSException {
+        LoginState current = this.state;
+        if (current != null) {
+            return current;
+        }
+        checkLoginPolicy();
+        synchronized (this) {
+            if (this.state == null) {
+                checkLoginPolicy();
+                try {
+                    login();
+                } catch (LoginException e) {
+                    throw loginFailure(e);
+                }
+            }
+            return this.state;
+        }
+    }
+
+    private void checkLoginPolicy() throws GSSException {
+        AuthFailurePolicy policy = this.loginFailurePolicy;
+        if (policy != null) {
+            policy.check(AuthFailurePolicy.LOGIN_TARGET);
+        }
+    }
+
+    private static GSSException loginFailure(final LoginException e) {
+        GSSException failure = new LoginFailure("Kerberos login failed: " + e.getMessage());
+        failure.initCause(e);
+        return failure;
+    }
+
+    void refresh() {
+        LoginState current = this.state;
+        if (current == null) {
+            return;
+        }
+        try {
+            KerberosTicket tgt = findTicketGrantingTicket(current.subject);
+            if (tgt == null || isDueForRenewal(tgt)) {
+                login();
+                return;
+            }
+
+            for (ServicePrincipal servicePrincipal : servicePrincipals.values()) {
+                if (evictExpiringServiceTicket(current.subject, servicePrincipal)) {
+                    prefetchServiceTicket(servicePrincipal.name);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Kerberos credential refresh failed, retrying on next cycle", e);
+        }
+    }
+
+    private boolean isDueForRenewal(final KerberosTicket ticket) {
+        long start = ticket.getStartTime() != null ? ticket.getStartTime().getTime() : ticket.getAuthTime().getTime();
+        long end = ticket.getEndTime().getTime();
+        return System.currentTimeMillis() >= start + (long) ((end - start) * renewWindow);
+    }
+
+    private boolean evictExpiringServiceTicket(final Subject subject, final ServicePrincipal servicePrincipal) {
+        KerberosTicket ticket = findTicket(subject, servicePrincipal);
+        if (ticket == null) {
+            return true;
+        }
+        if (isDueForRenewal(ticket)) {
+            subject.getPrivateCredentials().remove(ticket);
+            return true;
+        }
+        return false;
+    }
+
+    private void schedulePrefetch(final ServicePrincipal servicePrincipal) {
+        try {
+            scheduler.execute(() -> prefetchServiceTicket(servicePrincipal.name));
+        } catch (RejectedExecutionException e) {
+            log.debug("Manager closed, not prefetching the service ticket for {}", servicePrincipal.name);
+        }
+    }
+
+    private void prefetchServiceTicket(final GSSName servicePrincipal) {
+        try {
+            doAs(() -> {
+                GSSContext context = GSSManager.getInstance().createContext(
+                        servicePrincipal,
+                        SpnegoEngine.GSS_KRB5_MECH_OID,
+                        getCredential(),
+                        GSSContext.DEFAULT_LIFETIME);
+                try {
+                    context.initSecContext(new byte[0], 0, 0);
+                } finally {
+                    context.dispose();
+                }
+                return null;
+            });
+        } catch (GSSException e) {
+            log.warn("Unable to prefetch service ticket for {}", servicePrincipal, e);
+        }
+    }
+
+    private static KerberosTicket findTicketGrantingTicket(final Subject subject) {
+        for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            if (ticket.getServer().getName().startsWith("krbtgt/")) {
+                return ticket;
+            }
+        }
+        return null;
+    }
+
+    private KerberosTicket findTicket(final Subject subject, final ServicePrincipal servicePrincipal) {
+        KerberosPrincipal server = servicePrincipal.server;
+        if (server == null) {
+            try {
+                server = kerberosPrincipal(servicePrincipal.name);
+            } catch (GSSException | IllegalArgumentException e) {
+                log.debug("Unable to map {} to a Kerberos principal", servicePrincipal.name, e);
+                return null;
+            }
+            servicePrincipal.server = server;
+        }
+        for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            if (server.equals(ticket.getServer())) {
+                return ticket;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Ticket server name of a GSS name. GSSName.toString() keeps the printable form it was created from (service@host),
+     * the exported name of its Kerberos mechanism name holds the principal as requested from the KDC
+     * (service/host@REALM). Layout (RFC 2743 3.2): 04 01, OID length (2 bytes), OID, name length (4 bytes), name.
+     * */
+    private static KerberosPrincipal kerberosPrincipal(final GSSName name) throws GSSException {
+        byte[] exported = name.canonicalize(SpnegoEngine.GSS_KRB5_MECH_OID).export();
+        int offset = 4 + (((exported[2] & 0xff) << 8) | (exported[3] & 0xff));
+        int length = ((exported[offset] & 0xff) << 24) | ((exported[offset + 1] & 0xff) << 16)
+                | ((exported[offset + 2] & 0xff) << 8) | (exported[offset + 3] & 0xff);
+        return new KerberosPrincipal(new String(exported, offset + 4, length, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Failed KDC login, told apart from token failures so it is not counted against the proxy being authenticated.
+     */
+    static final class LoginFailure extends GSSException {
+        private LoginFailure(String message) {
+            super(GSSException.NO_CRED, -1, message);
+        }
+    }
+
+    /*
+     * Registered service principal and the number of engines using it, only updated inside the map's compute calls
+     * */
+    private static final class ServicePrincipal {
+        private final GSSName name;
+        private int users = 1;
+        // Ticket server name, resolved on first lookup
+        private volatile KerberosPrincipal server;
+
+        private ServicePrincipal(GSSName name) {
+            this.name = name;
+        }
+    }
+
+    private static final class LoginState {
+        private final LoginContext loginContext;
+        private final Subject subject;
+        private final GSSCredential credential;
+        private final String principalName;
+
+        private LoginState(LoginContext loginContext, Subject subject, GSSCredential credential) {
+            this.loginContext = loginContext;
+            this.subject = subject;
+            this.credential = credential;
+            this.principalName = subject.getPrincipals(KerberosPrincipal.class).stream()
+                    .map(KerberosPrincipal::getName)
+                    .findFirst()
+                    .orElse("");
+        }
+
+        private void logout() {
+            try {
+                credential.dispose();
+                loginContext.logout();
+            } catch (GSSException | LoginException ignored) {
+                // Nothing left to release
+            }
+        }
+    }
+}
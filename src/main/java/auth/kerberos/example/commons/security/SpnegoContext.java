@@ -0,0 +1,53 @@
+package auth.kerberos.example.commons.security;
+
+import org.apache.commons.codec.binary.Base64;
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSException;
+
+import java.io.Closeable;
+
+/**
+ * Initiated SPNEGO security context along with its initial (Base64 encoded) token.
+ * <p>
+ * The context stays open after the token is sent so the server reply can be processed by {@link #complete(String)},
+ * which verifies mutual authentication. Contexts are single-use and must be closed once done.
+ */
+public class SpnegoContext implements Closeable {
+    private final GSSContext gssContext;
+    private final String token;
+    private final Base64 base64codec;
+
+    SpnegoContext(GSSContext gssContext, String token, Base64 base64codec) {
+        this.gssContext = gssContext;
+        this.token = token;
+        this.base64codec = base64codec;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Processes the server Negotiate reply token.
+     *
+     * @return true if the context is now established, i.e. the server proved its identity
+     */
+    public boolean complete(final String serverToken) throws GSSException {
+        byte[] input = base64codec.decode(serverToken);
+        gssContext.initSecContext(input, 0, input.length);
+        return gssContext.isEstablished();
+    }
+
+    public boolean isEstablished() {
+        return gssContext.isEstablished();
+    }
+
+    @Override
+    public void close() {
+        try {
+            gssContext.dispose();
+        } catch (GSSException ignored) {
+            // Nothing left to release
+        }
+    }
+}
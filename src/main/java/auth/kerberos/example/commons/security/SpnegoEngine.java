@@ -38,20 +38,33 @@
 
 package auth.kerberos.example.commons.security;
 
+import auth.kerberos.example.commons.metrics.AuthMetrics;
+import auth.kerberos.example.commons.metrics.AuthMetricsRegistry;
 import org.apache.commons.codec.binary.Base64;
 import org.ietf.jgss.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.Closeable;
+import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * GSSAPI wrapper for SPNEGO (Simple and Protected GSSAPI Negotiation Mechanism) token generation.
+ * <p>
+ * Engines are bound to a single (service, host, mechanism) target, use {@link SpnegoEngineRegistry} to share them.
+ * With an {@link AuthFailurePolicy}, token generation fails fast while the target keeps failing and every wait on the
+ * worker pool is bounded by the policy deadline.
  */
-public class SpnegoEngine {
-    static final Oid GSS_KRB5_MECH_OID;
-    static final Oid GSS_SPNEGO_MECH_OID;
+public class SpnegoEngine implements Closeable {
+    public static final String DEFAULT_SERVICE_NAME = "HTTP";
+    public static final Oid GSS_KRB5_MECH_OID;
+    public static final Oid GSS_SPNEGO_MECH_OID;
     /*
      * SPNEGO GSSAPI mechanism OID. See https://oidref.com/1.3.6.1.5.5.2
      * */
@@ -61,8 +74,6 @@ public class SpnegoEngine {
      * */
     private static final String GSS_KRB5_MECH_OIDSTR = "1.2.840.113554.1.2.2";
 
-    private static final Map<String, SpnegoEngine> instances = new HashMap<>();
-
     static {
         try {
             GSS_KRB5_MECH_OID = new Oid(GSS_KRB5_MECH_OIDSTR);
@@ -74,49 +85,318 @@ public class SpnegoEngine {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
     private final String authHost;
+    private final String serviceName;
+    private final Oid mechOid;
     private final Base64 base64codec;
+    private final KerberosCredentialManager credentialManager;
+    private final GssWorkerPool workerPool;
+    private final int tokenPoolDepth;
+    private final long tokenFreshnessMillis;
+    private final GssNameCache nameCache;
+    private final AuthFailurePolicy failurePolicy;
+    private final long deadlineMillis;
+    private final AuthMetricsRegistry.Timer tokenTimer;
+    private final AuthMetricsRegistry.Timer pooledTokenTimer;
+    private final AuthMetricsRegistry.Counter tokenFailures;
+    private final AuthMetricsRegistry.Counter credentialHits;
+    private final AuthMetricsRegistry.Counter credentialMisses;
+    /*
+     * Single-flight slot for the credential and service ticket warm-up, shared by concurrent first callers
+     * */
+    private final AtomicReference<CompletableFuture<Void>> warmUp = new AtomicReference<>();
+
+    private volatile GSSName registeredServicePrincipal;
+    /*
+     * Started by the first newContext() rather than the constructor, so its producer never sees a partly built engine
+     * */
+    private volatile SpnegoTokenPool tokenPool;
+    private volatile boolean closed;
 
     public SpnegoEngine(final String authHost) {
+        this(authHost, null);
+    }
+
+    /**
+     * @param credentialManager shared credential holder, or null to let JGSS acquire credentials on every token
+     */
+    public SpnegoEngine(final String authHost, final KerberosCredentialManager credentialManager) {
+        this(authHost, DEFAULT_SERVICE_NAME, GSS_SPNEGO_MECH_OID, credentialManager, new SpnegoEngineConfig());
+    }
+
+    public SpnegoEngine(final String authHost,
+                        final String serviceName,
+                        final Oid mechOid,
+                        final KerberosCredentialManager credentialManager,
+                        final SpnegoEngineConfig config) {
         this.authHost = authHost;
+        this.serviceName = serviceName;
+        this.mechOid = mechOid;
         this.base64codec = new Base64(0);
+        this.credentialManager = credentialManager;
+        this.workerPool = config.getWorkerPool();
+        this.nameCache = config.getNameCache();
+        this.failurePolicy = config.getFailurePolicy();
+        this.deadlineMillis = failurePolicy != null ? failurePolicy.getTokenDeadlineMillis() : 0;
+        AuthMetricsRegistry metrics = AuthMetrics.registry();
+        this.tokenTimer = metrics.timer(AuthMetrics.TOKEN_GENERATION, authHost);
+        this.pooledTokenTimer = metrics.timer(AuthMetrics.TOKEN_POOL_GENERATION, authHost);
+        this.tokenFailures = metrics.counter(AuthMetrics.TOKEN_FAILURES, authHost);
+        this.credentialHits = metrics.counter(AuthMetrics.CREDENTIAL_CACHE_HITS, authHost);
+        this.credentialMisses = metrics.counter(AuthMetrics.CREDENTIAL_CACHE_MISSES, authHost);
+        this.tokenPoolDepth = config.getTokenPoolDepth();
+        this.tokenFreshnessMillis = config.getTokenFreshnessMillis();
     }
 
-    public static SpnegoEngine instance(final String authHost,
-                                        final String loginContextName) {
-        String key = "";
-        if (loginContextName != null) {
-            key += loginContextName;
+    /**
+     * Returns a context for a new authentication attempt, taken from the pre-generated pool when one is configured and
+     * initiated on the spot otherwise. Callers complete it with the server reply or close it.
+     */
+    public SpnegoContext newContext() throws GSSException {
+        SpnegoTokenPool pool = tokenPool();
+        if (pool != null) {
+            SpnegoContext pooled = pool.poll();
+            if (pooled != null) {
+                return pooled;
+            }
         }
-        if (!instances.containsKey(key)) {
-            instances.put(key, new SpnegoEngine(authHost));
+        return createContext();
+    }
+
+    /**
+     * Same as {@link #newContext()}, for callers that only need the token and skip mutual authentication.
+     */
+    public String nextToken() throws GSSException {
+        try (SpnegoContext context = newContext()) {
+            return context.getToken();
         }
-        return instances.get(key);
     }
 
     public String generateToken() throws GSSException {
-        byte[] token = generateGSSToken(GSS_SPNEGO_MECH_OID, "HTTP", authHost);
-        return new String(this.base64codec.encode(token));
+        try (SpnegoContext context = createContext()) {
+            return context.getToken();
+        }
     }
 
-    protected byte[] generateGSSToken(
-            final Oid oid, final String serviceName, final String authHost) throws GSSException {
-        byte[] inputBuff = new byte[]{};
-        if (inputBuff == null) {
-            inputBuff = new byte[0];
+    private SpnegoTokenPool tokenPool() {
+        SpnegoTokenPool pool = tokenPool;
+        if (pool == null && tokenPoolDepth > 0) {
+            synchronized (this) {
+                pool = tokenPool;
+                if (pool == null && !closed) {
+                    pool = new SpnegoTokenPool(this, tokenPoolDepth, tokenFreshnessMillis);
+                    tokenPool = pool;
+                }
+            }
         }
+        return pool;
+    }
+
+    SpnegoContext createContext() throws GSSException {
+        return createContext(tokenTimer);
+    }
+
+    /**
+     * Same as {@link #createContext()} for the token pool producer, timed apart from the request path.
+     */
+    SpnegoContext createPooledContext() throws GSSException {
+        return createContext(pooledTokenTimer);
+    }
+
+    /**
+     * Whether the failure policy currently fails token generation for this target fast.
+     */
+    boolean isFailingFast() {
+        return failurePolicy != null && failurePolicy.isFailingFast(authHost);
+    }
+
+    private SpnegoContext createContext(final AuthMetricsRegistry.Timer timer) throws GSSException {
+        if (closed) {
+            // Evicted from its registry, the caller looks the target up again
+            throw new GSSException(GSSException.UNAVAILABLE, -1,
+                    "SPNEGO engine for " + serviceName + "@" + authHost + " is closed");
+        }
+        if (failurePolicy != null) {
+            failurePolicy.check(authHost);
+        }
+        long start = System.nanoTime();
+        try {
+            SpnegoContext context = initiateContext(mechOid, serviceName, authHost);
+            timer.record(System.nanoTime() - start);
+            if (failurePolicy != null) {
+                failurePolicy.succeeded(authHost);
+            }
+            return context;
+        } catch (GSSException e) {
+            tokenFailures.increment();
+            if (failurePolicy != null && isTokenFailure(e)) {
+                failurePolicy.failed(authHost, e);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            tokenFailures.increment();
+            throw e;
+        }
+    }
+
+    /*
+     * Login failures, and failures handed back by a failure policy cache, are already accounted for by their own target
+     * */
+    private static boolean isTokenFailure(final GSSException e) {
+        return !(e instanceof KerberosCredentialManager.LoginFailure) && !(e instanceof AuthFailurePolicy.FastFailure);
+    }
+
+    protected SpnegoContext initiateContext(
+            final Oid oid, final String serviceName, final String authHost) throws GSSException {
+        final byte[] inputBuff = new byte[0];
         final GSSManager manager = GSSManager.getInstance();
+        final GSSName target = nameCache.get(serviceName, authHost, oid);
+        warmUp(serviceName, authHost);
+
+        if (credentialManager == null) {
+            // JGSS acquires credentials from scratch for every context
+            credentialMisses.increment();
+            return runOnWorker(() -> initSecContext(manager, target, oid, null, inputBuff));
+        }
+
+        // A hit reuses the service ticket already in the subject, a miss has JGSS fetch it from the KDC first
+        boolean ticketCached = credentialManager.hasServiceTicket(registeredServicePrincipal);
+        (ticketCached ? credentialHits : credentialMisses).increment();
+        // Run under the shared subject so the cached TGT and service ticket are reused
+        final GSSCredential credential = credentialManager.getCredential();
+        try {
+            return runOnWorker(() -> credentialManager.doAs(() -> initSecContext(
+                    manager, target, oid, credential, inputBuff)));
+        } catch (GSSException e) {
+            if (e.getMajor() != GSSException.CREDENTIALS_EXPIRED && e.getMajor() != GSSException.NO_CRED) {
+                throw e;
+            }
+            // Only one of the callers holding the stale credential logs in again, the rest reuse its result
+            credentialMisses.increment();
+            try {
+                credentialManager.relogin(credential);
+            } catch (GSSException loginFailure) {
+                if (failurePolicy != null) {
+                    // The ticket request did reach the KDC, it holds the proxy until the login recovers
+                    failurePolicy.failed(authHost, e, true);
+                }
+                throw loginFailure;
+            }
+            final GSSCredential renewed = credentialManager.getCredential();
+            return runOnWorker(() -> credentialManager.doAs(() -> initSecContext(
+                    manager, target, oid, renewed, inputBuff)));
+        }
+    }
+
+    /**
+     * Acquires the credential and registers the service principal once, warming the service ticket up on the way.
+     * Concurrent callers wait for the first one instead of repeating the work, a failure clears the slot for retry.
+     */
+    private void warmUp(final String serviceName, final String authHost) throws GSSException {
+        if (credentialManager == null) {
+            return;
+        }
+        while (true) {
+            CompletableFuture<Void> current = warmUp.get();
+            if (current != null) {
+                awaitWarmUp(current);
+                return;
+            }
+
+            CompletableFuture<Void> created = new CompletableFuture<>();
+            if (!warmUp.compareAndSet(null, created)) {
+                continue;
+            }
+            try {
+                registeredServicePrincipal = nameCache.get(serviceName, authHost, GSS_KRB5_MECH_OID);
+                credentialManager.getCredential();
+                credentialManager.registerServicePrincipal(registeredServicePrincipal);
+                created.complete(null);
+                return;
+            } catch (GSSException | RuntimeException e) {
+                warmUp.set(null);
+                created.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
 
-        String proxyServicePrincipal = serviceName + "@" + authHost;
-        GSSName gssName = manager.createName(proxyServicePrincipal,
-                GSSName.NT_HOSTBASED_SERVICE);
+    private void awaitWarmUp(final CompletableFuture<Void> warmUp) throws GSSException {
+        try {
+            if (deadlineMillis > 0) {
+                warmUp.get(deadlineMillis, TimeUnit.MILLISECONDS);
+            } else {
+                warmUp.join();
+            }
+        } catch (TimeoutException e) {
+            throw new GSSException(GSSException.UNAVAILABLE, -1,
+                    "Credential warm-up exceeded its " + deadlineMillis + "ms deadline");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GSSException(GSSException.FAILURE, -1, "Interrupted while waiting for credential warm-up");
+        } catch (ExecutionException | CompletionException e) {
+            if (e.getCause() instanceof GSSException) {
+                throw (GSSException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private <T> T runOnWorker(final PrivilegedExceptionAction<T> task) throws GSSException {
+        if (workerPool == null) {
+            try {
+                return task.run();
+            } catch (GSSException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return workerPool.execute(task, deadlineMillis);
+    }
 
+    private SpnegoContext initSecContext(final GSSManager manager,
+                                         final GSSName serverName,
+                                         final Oid oid,
+                                         final GSSCredential credential,
+                                         final byte[] inputBuff) throws GSSException {
         final GSSContext gssContext = manager.createContext(
-                gssName.canonicalize(oid),
+                serverName,
                 oid,
-                null,
+                credential,
                 GSSContext.DEFAULT_LIFETIME);
         gssContext.requestMutualAuth(true);
 
-        return gssContext.initSecContext(inputBuff, 0, inputBuff.length);
+        byte[] token = gssContext.initSecContext(inputBuff, 0, inputBuff.length);
+        return new SpnegoContext(gssContext, new String(this.base64codec.encode(token)), base64codec);
+    }
+
+    public String getAuthHost() {
+        return authHost;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Releases the engine, dropping the service ticket it kept warm in the shared credential manager.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (tokenPool != null) {
+            tokenPool.close();
+        }
+        GSSName servicePrincipal = registeredServicePrincipal;
+        if (credentialManager != null && servicePrincipal != null) {
+            credentialManager.unregisterServicePrincipal(servicePrincipal);
+        }
+        log.debug("Closed SPNEGO engine for {}@{}", serviceName, authHost);
     }
 }
@@ -0,0 +1,77 @@
+package auth.kerberos.example.commons.security;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tuning options shared by the {@link SpnegoEngine} instances of a {@link SpnegoEngineRegistry}.
+ * Defaults keep the plain behavior: token generation on the calling thread, no token pool and no failure policy.
+ */
+public class SpnegoEngineConfig {
+    public static final long DEFAULT_TOKEN_FRESHNESS_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private GssWorkerPool workerPool;
+    private GssNameCache nameCache = new GssNameCache();
+    private int tokenPoolDepth;
+    private long tokenFreshnessMillis = DEFAULT_TOKEN_FRESHNESS_MILLIS;
+    private AuthFailurePolicy failurePolicy;
+
+    public GssWorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
+    /**
+     * Pool running {@code initSecContext}, or null to run it on the calling thread.
+     */
+    public SpnegoEngineConfig setWorkerPool(GssWorkerPool workerPool) {
+        this.workerPool = workerPool;
+        return this;
+    }
+
+    public GssNameCache getNameCache() {
+        return nameCache;
+    }
+
+    /**
+     * Cache of canonicalized service principal names, shared by all engines.
+     */
+    public SpnegoEngineConfig setNameCache(GssNameCache nameCache) {
+        this.nameCache = nameCache;
+        return this;
+    }
+
+    public int getTokenPoolDepth() {
+        return tokenPoolDepth;
+    }
+
+    /**
+     * Number of tokens kept pre-generated per engine, 0 disables the pool.
+     */
+    public SpnegoEngineConfig setTokenPoolDepth(int tokenPoolDepth) {
+        this.tokenPoolDepth = tokenPoolDepth;
+        return this;
+    }
+
+    public long getTokenFreshnessMillis() {
+        return tokenFreshnessMillis;
+    }
+
+    /**
+     * Maximum age of a pooled token, keep it well below the acceptor clock skew (5 minutes by default in Kerberos).
+     */
+    public SpnegoEngineConfig setTokenFreshnessMillis(long tokenFreshnessMillis) {
+        this.tokenFreshnessMillis = tokenFreshnessMillis;
+        return this;
+    }
+
+    public AuthFailurePolicy getFailurePolicy() {
+        return failurePolicy;
+    }
+
+    /**
+     * Fail-fast policy of token generation per proxy host, or null to attempt every token.
+     */
+    public SpnegoEngineConfig setFailurePolicy(AuthFailurePolicy failurePolicy) {
+        this.failurePolicy = failurePolicy;
+        return this;
+    }
+}
@@ -0,0 +1,264 @@
+package auth.kerberos.example.commons.security;
+
+import auth.kerberos.example.commons.metrics.AuthMetrics;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.Oid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent registry of {@link SpnegoEngine} instances, keyed by (principal, service, host, mechanism OID).
+ * <p>
+ * Lookups of existing engines are lock-free, creation happens at most once per key. The registry is bounded: engines
+ * idle for longer than the idle timeout are evicted by a background sweeper, and inserting past the maximum size
+ * evicts the least recently used engine. Evicted engines are only unlinked, then closed after a grace period so callers
+ * still holding them finish their token. All remaining ones are closed on {@link #close()}.
+ * <p>
+ * Notes:
+ * - A closed engine fails with a {@link GSSException}, {@link #withEngine} looks the target up again in that case
+ * - The owner registers the {@link AuthMetrics#ENGINE_REGISTRY_SIZE} gauge, one registry per name
+ * - Credential managers handed to the registry are shared and owned by the caller, they are never closed here
+ * - All engines share the configured {@link GssWorkerPool}, bounding concurrent token generation process-wide
+ */
+public class SpnegoEngineRegistry implements Closeable {
+    public static final int DEFAULT_MAX_ENGINES = 64;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    /*
+     * Access timestamps are only refreshed when older than this, keeping the hot path free of contended writes
+     * */
+    private static final long ACCESS_RESOLUTION_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /*
+     * Time evicted engines stay open for the callers that got them before the eviction
+     * */
+    private static final long RETIRE_GRACE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Map<Key, Entry> engines = new ConcurrentHashMap<>();
+    private final int maxEngines;
+    private final long idleTimeoutNanos;
+    private final ScheduledExecutorService sweeper;
+    private final SpnegoEngineConfig config;
+
+    public SpnegoEngineRegistry() {
+        this(new SpnegoEngineConfig().setWorkerPool(new GssWorkerPool()));
+    }
+
+    public SpnegoEngineRegistry(final SpnegoEngineConfig config) {
+        this(DEFAULT_MAX_ENGINES, DEFAULT_IDLE_TIMEOUT_MILLIS, config);
+    }
+
+    /**
+     * @param config engine options, its worker pool and name cache are shared by all engines and closed together with
+     *               the registry
+     */
+    public SpnegoEngineRegistry(final int maxEngines, final long idleTimeoutMillis, final SpnegoEngineConfig config) {
+        this.maxEngines = maxEngines;
+        this.config = config;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "spnego-engine-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long sweepIntervalMillis = Math.max(1, idleTimeoutMillis / 2);
+        this.sweeper.scheduleWithFixedDelay(this::evictIdle,
+                sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registry shared by callers that do not manage their own.
+     */
+    public static SpnegoEngineRegistry defaultRegistry() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Returns the engine for the given target, creating it on first use.
+     *
+     * @param principal         client principal the engine authenticates as, empty for the JGSS default credential
+     * @param credentialManager shared credential holder for that principal, or null
+     */
+    public SpnegoEngine get(final String principal,
+                            final String serviceName,
+                            final String authHost,
+                            final Oid mechOid,
+                            final KerberosCredentialManager credentialManager) {
+        Key key = new Key(principal, serviceName, authHost, mechOid);
+        while (true) {
+            Entry entry = engines.get(key);
+            if (entry == null) {
+                entry = engines.computeIfAbsent(key, k -> new Entry(
+                        new SpnegoEngine(authHost, serviceName, mechOid, credentialManager, config)));
+                if (engines.size() > maxEngines) {
+                    evictLeastRecentlyUsed(key);
+                }
+            }
+            if (!entry.engine.isClosed()) {
+                entry.touch();
+                return entry.engine;
+            }
+            // Evicted concurrently (already out of the map) or closed by a caller: retrying creates a fresh one
+            engines.remove(key, entry);
+        }
+    }
+
+    /**
+     * Runs the given action on the engine of the target, once more on a fresh engine if the first one was closed by an
+     * eviction in the meantime.
+     */
+    public <T> T withEngine(final String principal,
+                            final String serviceName,
+                            final String authHost,
+                            final Oid mechOid,
+                            final KerberosCredentialManager credentialManager,
+                            final EngineAction<T> action) throws GSSException {
+        SpnegoEngine engine = get(principal, serviceName, authHost, mechOid, credentialManager);
+        try {
+            return action.run(engine);
+        } catch (GSSException e) {
+            if (!engine.isClosed()) {
+                throw e;
+            }
+            return action.run(get(principal, serviceName, authHost, mechOid, credentialManager));
+        }
+    }
+
+    public int size() {
+        return engines.size();
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        for (Key key : engines.keySet()) {
+            Entry removed = engines.remove(key);
+            if (removed != null) {
+                removed.engine.close();
+            }
+        }
+        if (config.getWorkerPool() != null) {
+            config.getWorkerPool().close();
+        }
+        config.getNameCache().close();
+    }
+
+    void evictIdle() {
+        long now = System.nanoTime();
+        for (Map.Entry<Key, Entry> e : engines.entrySet()) {
+            if (now - e.getValue().lastAccessNanos > idleTimeoutNanos) {
+                log.debug("Evicting idle SPNEGO engine {}", e.getKey());
+                evict(e.getKey());
+            }
+        }
+    }
+
+    private void evictLeastRecentlyUsed(final Key keep) {
+        Key oldest = null;
+        long oldestAccess = Long.MAX_VALUE;
+        for (Map.Entry<Key, Entry> e : engines.entrySet()) {
+            if (!e.getKey().equals(keep) && e.getValue().lastAccessNanos < oldestAccess) {
+                oldest = e.getKey();
+                oldestAccess = e.getValue().lastAccessNanos;
+            }
+        }
+        if (oldest != null) {
+            evict(oldest);
+        }
+    }
+
+    private void evict(final Key key) {
+        Entry removed = engines.remove(key);
+        if (removed == null) {
+            return;
+        }
+        try {
+            sweeper.schedule(removed.engine::close, RETIRE_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Registry closing
+            removed.engine.close();
+        }
+    }
+
+    /**
+     * Token work run against a registry engine.
+     */
+    public interface EngineAction<T> {
+        T run(SpnegoEngine engine) throws GSSException;
+    }
+
+    private static final class DefaultHolder {
+        private static final SpnegoEngineRegistry INSTANCE = new SpnegoEngineRegistry();
+
+        static {
+            AuthMetrics.registry().gauge(AuthMetrics.ENGINE_REGISTRY_SIZE, INSTANCE::size);
+        }
+    }
+
+    private static final class Entry {
+        private final SpnegoEngine engine;
+        private volatile long lastAccessNanos;
+
+        private Entry(SpnegoEngine engine) {
+            this.engine = engine;
+            this.lastAccessNanos = System.nanoTime();
+        }
+
+        private void touch() {
+            long now = System.nanoTime();
+            if (now - lastAccessNanos > ACCESS_RESOLUTION_NANOS) {
+                lastAccessNanos = now;
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String principal;
+        private final String serviceName;
+        private final String authHost;
+        private final Oid mechOid;
+        private final int hash;
+
+        private Key(String principal, String serviceName, String authHost, Oid mechOid) {
+            this.principal = principal == null ? "" : principal;
+            this.serviceName = serviceName;
+            this.authHost = authHost.toLowerCase(Locale.ROOT);
+            this.mechOid = mechOid;
+            this.hash = Objects.hash(this.principal, serviceName, this.authHost, mechOid);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return principal.equals(other.principal)
+                    && serviceName.equals(other.serviceName)
+                    && authHost.equals(other.authHost)
+                    && mechOid.equals(other.mechOid);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return principal + " -> " + serviceName + "@" + authHost + " (" + mechOid + ")";
+        }
+    }
+}
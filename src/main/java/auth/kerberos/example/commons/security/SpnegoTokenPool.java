@@ -0,0 +1,139 @@
+package auth.kerberos.example.commons.security;
+
+import org.ietf.jgss.GSSException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pre-generated SPNEGO contexts (and their initial tokens) for a single {@link SpnegoEngine} target.
+ * <p>
+ * A background producer keeps the pool topped up to its depth, so callers just dequeue a ready token instead of
+ * building a GSS context on the request thread. Each token (AP-REQ) is handed out once, and tokens older than the
+ * freshness window are discarded so they stay within the acceptor clock-skew and replay-cache rules.
+ * <p>
+ * Notes:
+ * - The producer stands by while the engine's failure policy fails the target fast, request threads probe it
+ * - A failing producer logs a warning once, then at debug level until a refill succeeds again
+ */
+class SpnegoTokenPool implements Closeable {
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final SpnegoEngine engine;
+    private final BlockingQueue<PooledToken> tokens;
+    private final int depth;
+    private final long freshnessNanos;
+    private final ScheduledExecutorService producer;
+    private final AtomicBoolean refillScheduled = new AtomicBoolean();
+    /*
+     * Only touched by the single producer thread
+     * */
+    private boolean failing;
+
+    SpnegoTokenPool(final SpnegoEngine engine, final int depth, final long freshnessMillis) {
+        this.engine = engine;
+        this.depth = depth;
+        this.tokens = new ArrayBlockingQueue<>(depth);
+        this.freshnessNanos = TimeUnit.MILLISECONDS.toNanos(freshnessMillis);
+        this.producer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "spnego-token-producer-" + engine.getAuthHost());
+            t.setDaemon(true);
+            return t;
+        });
+        // Periodic pass evicting stale tokens even when nobody is consuming
+        long intervalMillis = Math.max(1, freshnessMillis / 2);
+        this.producer.scheduleWithFixedDelay(this::refill, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a fresh pooled context, or null when the pool ran dry. Either way a refill is triggered.
+     */
+    SpnegoContext poll() {
+        long now = System.nanoTime();
+        PooledToken token;
+        SpnegoContext result = null;
+        while ((token = tokens.poll()) != null) {
+            if (now - token.createdNanos < freshnessNanos) {
+                result = token.context;
+                break;
+            }
+            token.context.close();
+        }
+        scheduleRefill();
+        return result;
+    }
+
+    int size() {
+        return tokens.size();
+    }
+
+    @Override
+    public void close() {
+        producer.shutdownNow();
+        PooledToken token;
+        while ((token = tokens.poll()) != null) {
+            token.context.close();
+        }
+    }
+
+    private void scheduleRefill() {
+        if (refillScheduled.compareAndSet(false, true)) {
+            try {
+                producer.execute(this::refill);
+            } catch (RejectedExecutionException e) {
+                refillScheduled.set(false);
+            }
+        }
+    }
+
+    private void refill() {
+        refillScheduled.set(false);
+        long now = System.nanoTime();
+        tokens.removeIf(t -> {
+            if (now - t.createdNanos < freshnessNanos) {
+                return false;
+            }
+            t.context.close();
+            return true;
+        });
+        if (engine.isFailingFast()) {
+            return;
+        }
+        try {
+            while (tokens.size() < depth && !engine.isClosed()) {
+                SpnegoContext context = engine.createPooledContext();
+                if (!tokens.offer(new PooledToken(context, System.nanoTime()))) {
+                    context.close();
+                }
+            }
+            if (failing) {
+                failing = false;
+                log.info("Pre-generating SPNEGO tokens for {} again", engine.getAuthHost());
+            }
+        } catch (GSSException | RuntimeException e) {
+            if (!failing) {
+                failing = true;
+                log.warn("Unable to pre-generate SPNEGO token for {}", engine.getAuthHost(), e);
+            } else {
+                log.debug("Still unable to pre-generate SPNEGO token for {}: {}", engine.getAuthHost(), e.getMessage());
+            }
+        }
+    }
+
+    private static final class PooledToken {
+        private final SpnegoContext context;
+        private final long createdNanos;
+
+        private PooledToken(SpnegoContext context, long createdNanos) {
+            this.context = context;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
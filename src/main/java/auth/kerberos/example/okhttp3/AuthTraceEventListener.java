@@ -0,0 +1,333 @@
+package auth.kerberos.example.okhttp3;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Per-call timeline of the proxy authentication flow, used to attribute tail latency to the proxy, the KDC or the
+ * origin.
+ * <p>
+ * Every phase is stamped once (first occurrence) into a preallocated array, time spent in
+ * {@link KerberosProxyAuthenticator} and in token generation is accumulated across retries. Recording allocates
+ * nothing beyond the listener itself; the timeline is only rendered for calls handed to the sink, which are the ones
+ * slower than the threshold plus a 1-in-N sample of the rest.
+ * <p>
+ * Notes:
+ * - Install the factory with {@link Factory#install}, which tags every request with its trace so the authenticator finds
+ *   it via {@link #of(Request)} whatever thread it runs on
+ * - CONNECT requests are built by okhttp without the tag, so tunnel authentication is not attributed
+ * - Events on a listener whose call already ended are ignored
+ */
+public class AuthTraceEventListener extends EventListener {
+    public enum Phase {
+        CALL_START,
+        DNS_START,
+        DNS_END,
+        CONNECT_START,
+        SECURE_CONNECT_START,
+        SECURE_CONNECT_END,
+        CONNECT_END,
+        CONNECTION_ACQUIRED,
+        REQUEST_HEADERS_START,
+        FIRST_CHALLENGE,
+        RETRY_HEADERS_START,
+        RESPONSE_HEADERS_END,
+        RESPONSE_BODY_END,
+        CALL_END
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final Factory factory;
+    /*
+     * Events of a call come from the caller and dispatcher threads, hence the atomics
+     * */
+    private final AtomicLongArray marks = new AtomicLongArray(PHASES.length);
+    private final AtomicLong authenticateNanos = new AtomicLong();
+    private final AtomicLong tokenNanos = new AtomicLong();
+    private final AtomicInteger challenges = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile boolean failed;
+    private volatile boolean ended;
+
+    AuthTraceEventListener(Factory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Trace of the call the request belongs to, or null when tracing is off or the call ended.
+     */
+    @Nullable
+    static AuthTraceEventListener of(@NotNull Request request) {
+        AuthTraceEventListener trace = request.tag(AuthTraceEventListener.class);
+        return trace != null && !trace.ended ? trace : null;
+    }
+
+    void recordAuthenticate(long nanos) {
+        authenticateNanos.addAndGet(nanos);
+    }
+
+    void recordToken(long nanos) {
+        tokenNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Time between the two phases in nanoseconds, or -1 when either was not reached.
+     */
+    public long between(Phase from, Phase to) {
+        long start = marks.get(from.ordinal());
+        long end = marks.get(to.ordinal());
+        return start == 0 || end == 0 ? -1 : end - start;
+    }
+
+    public long totalNanos() {
+        return between(Phase.CALL_START, Phase.CALL_END);
+    }
+
+    public long authenticateNanos() {
+        return authenticateNanos.get();
+    }
+
+    public long tokenNanos() {
+        return tokenNanos.get();
+    }
+
+    public int challenges() {
+        return challenges.get();
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Renders the phases reached, relative to call start, followed by the attributed durations.
+     */
+    public String timeline() {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(failed ? "FAILED" : "OK")
+                .append(" total=").append(millis(totalNanos())).append("ms");
+        long start = marks.get(Phase.CALL_START.ordinal());
+        for (Phase phase : PHASES) {
+            long mark = marks.get(phase.ordinal());
+            if (mark != 0 && phase != Phase.CALL_START) {
+                sb.append(' ').append(phase.name().toLowerCase()).append("=+").append(millis(mark - start));
+            }
+        }
+        sb.append(" | dns=").append(millis(between(Phase.DNS_START, Phase.DNS_END)))
+                .append(" proxy_connect=").append(millis(between(Phase.CONNECT_START, Phase.CONNECT_END)))
+                .append(" tls=").append(millis(between(Phase.SECURE_CONNECT_START, Phase.SECURE_CONNECT_END)))
+                .append(" challenge_rtt=").append(millis(between(Phase.REQUEST_HEADERS_START, Phase.FIRST_CHALLENGE)))
+                .append(" authenticate=").append(millis(authenticateNanos.get()))
+                .append(" token=").append(millis(tokenNanos.get()))
+                .append(" ttfb=").append(millis(between(
+                        marks.get(Phase.RETRY_HEADERS_START.ordinal()) != 0 ? Phase.RETRY_HEADERS_START : Phase.REQUEST_HEADERS_START,
+                        Phase.RESPONSE_HEADERS_END)))
+                .append(" body=").append(millis(between(Phase.RESPONSE_HEADERS_END, Phase.RESPONSE_BODY_END)))
+                .append(" challenges=").append(challenges.get())
+                .append(" requests=").append(requests.get());
+        return sb.toString();
+    }
+
+    @Override
+    public void callStart(@NotNull Call call) {
+        factory.started(call, this);
+        mark(Phase.CALL_START);
+    }
+
+    @Override
+    public void dnsStart(@NotNull Call call, @NotNull String domainName) {
+        mark(Phase.DNS_START);
+    }
+
+    @Override
+    public void dnsEnd(@NotNull Call call, @NotNull String domainName, @NotNull List<InetAddress> inetAddressList) {
+        mark(Phase.DNS_END);
+    }
+
+    @Override
+    public void connectStart(@NotNull Call call, @NotNull InetSocketAddress inetSocketAddress, @NotNull Proxy proxy) {
+        mark(Phase.CONNECT_START);
+    }
+
+    @Override
+    public void secureConnectStart(@NotNull Call call) {
+        mark(Phase.SECURE_CONNECT_START);
+    }
+
+    @Override
+    public void secureConnectEnd(@NotNull Call call, @Nullable Handshake handshake) {
+        mark(Phase.SECURE_CONNECT_END);
+    }
+
+    @Override
+    public void connectEnd(@NotNull Call call, @NotNull InetSocketAddress inetSocketAddress, @NotNull Proxy proxy,
+                           @Nullable Protocol protocol) {
+        mark(Phase.CONNECT_END);
+    }
+
+    @Override
+    public void connectFailed(@NotNull Call call, @NotNull InetSocketAddress inetSocketAddress, @NotNull Proxy proxy,
+                              @Nullable Protocol protocol, @NotNull IOException ioe) {
+        mark(Phase.CONNECT_END);
+    }
+
+    @Override
+    public void connectionAcquired(@NotNull Call call, @NotNull Connection connection) {
+        mark(Phase.CONNECTION_ACQUIRED);
+    }
+
+    @Override
+    public void requestHeadersStart(@NotNull Call call) {
+        mark(requests.incrementAndGet() == 1 ? Phase.REQUEST_HEADERS_START : Phase.RETRY_HEADERS_START);
+    }
+
+    @Override
+    public void responseHeadersEnd(@NotNull Call call, @NotNull Response response) {
+        if (response.code() == 407) {
+            challenges.incrementAndGet();
+            mark(Phase.FIRST_CHALLENGE);
+        } else {
+            mark(Phase.RESPONSE_HEADERS_END);
+        }
+    }
+
+    @Override
+    public void responseBodyEnd(@NotNull Call call, long byteCount) {
+        mark(Phase.RESPONSE_BODY_END);
+    }
+
+    @Override
+    public void callEnd(@NotNull Call call) {
+        end(call, false);
+    }
+
+    @Override
+    public void callFailed(@NotNull Call call, @NotNull IOException ioe) {
+        end(call, true);
+    }
+
+    @Override
+    public void canceled(@NotNull Call call) {
+        failed = true;
+    }
+
+    private void mark(Phase phase) {
+        if (!ended) {
+            marks.compareAndSet(phase.ordinal(), 0, System.nanoTime());
+        }
+    }
+
+    private void end(Call call, boolean failed) {
+        if (ended) {
+            return;
+        }
+        mark(Phase.CALL_END);
+        if (failed) {
+            this.failed = true;
+        }
+        ended = true;
+        factory.complete(this, call);
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 0 ? "-" : String.format("%.2f", nanos / 1_000_000.0);
+    }
+
+    /**
+     * Creates one trace per call and reports the slow and sampled ones.
+     */
+    public static class Factory implements EventListener.Factory {
+        private final Logger log = LoggerFactory.getLogger(AuthTraceEventListener.class);
+        private final long slowThresholdNanos;
+        private final long sampleEvery;
+        private final Consumer<String> sink;
+        private final AtomicLong sequence = new AtomicLong();
+        private final Map<Call, AuthTraceEventListener> traces = new ConcurrentHashMap<>();
+
+        /**
+         * Reports calls slower than the threshold plus one in {@code sampleEvery} other calls to the slf4j logger.
+         */
+        public Factory(long slowThresholdMillis, long sampleEvery) {
+            this(slowThresholdMillis, sampleEvery, null);
+        }
+
+        /**
+         * @param sampleEvery report one in this many calls regardless of latency, 0 to report slow calls only
+         * @param sink        receives one rendered timeline per reported call, or null to log them
+         */
+        public Factory(long slowThresholdMillis, long sampleEvery, @Nullable Consumer<String> sink) {
+            this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+            this.sampleEvery = sampleEvery;
+            this.sink = sink;
+        }
+
+        /**
+         * Sets this factory on the builder, along with the interceptor tagging requests with their call's trace.
+         */
+        @NotNull
+        public OkHttpClient.Builder install(@NotNull OkHttpClient.Builder builder) {
+            return builder
+                    .eventListenerFactory(this)
+                    .addInterceptor(chain -> {
+                        Request request = chain.request();
+                        AuthTraceEventListener trace = traces.get(chain.call());
+                        return chain.proceed(trace != null
+                                ? request.newBuilder().tag(AuthTraceEventListener.class, trace).build()
+                                : request);
+                    });
+        }
+
+        @NotNull
+        @Override
+        public EventListener create(@NotNull Call call) {
+            return new AuthTraceEventListener(this);
+        }
+
+        /*
+         * Listeners are created with the call, they are only tracked once it runs so unexecuted calls leave nothing behind
+         * */
+        void started(Call call, AuthTraceEventListener trace) {
+            traces.put(call, trace);
+        }
+
+        void complete(AuthTraceEventListener trace, Call call) {
+            traces.remove(call);
+            Request request = call.request();
+            boolean slow = trace.totalNanos() >= slowThresholdNanos;
+            boolean sampled = sampleEvery > 0 && sequence.incrementAndGet() % sampleEvery == 0;
+            if (!slow && !sampled && !trace.failed) {
+                return;
+            }
+            String line = (slow ? "SLOW " : sampled ? "SAMPLE " : "") + request.method() + " " + request.url() + " " + trace.timeline();
+            if (sink != null) {
+                sink.accept(line);
+            } else {
+                log.info(line);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package auth.kerberos.example.okhttp3;
+
+import auth.kerberos.example.commons.security.SpnegoContext;
+import okhttp3.Connection;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.ietf.jgss.GSSException;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Network interceptor tracking Negotiate proxy authentication per pooled connection.
+ * <p>
+ * Proxies like Squid treat Negotiate as connection-oriented: once a keep-alive connection is authenticated, later
+ * requests on it are accepted without a new token. This interceptor completes the SPNEGO context with the proxy
+ * reply (verifying mutual authentication) and remembers the connection, so {@link KerberosProxyAuthenticator} and
+ * {@link KerberosPreemptiveAuthInterceptor} skip token generation for it. A 407 on a remembered connection forgets it.
+ * <p>
+ * Notes:
+ * - Register it as a network interceptor after {@link KerberosPreemptiveAuthInterceptor}, so it sees the final headers
+ * - CONNECT tunnels are authenticated once per connection by design and are not tracked here
+ * - Proxies that send no Negotiate reply token cannot be verified: such a connection is only remembered after a 2xx
+ *   response, and mutual authentication is skipped for it
+ */
+public class KerberosConnectionAuthInterceptor implements Interceptor {
+    private static final int PENDING_PURGE_THRESHOLD = 256;
+    private static final long PENDING_MAX_AGE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Map<Connection, Boolean> authenticatedConnections =
+            Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<String, PendingContext> pendingContexts = new ConcurrentHashMap<>();
+
+    /**
+     * Remembers the context behind the returned Proxy-Authorization value, so the proxy reply can complete it.
+     */
+    @NotNull
+    String track(@NotNull SpnegoContext context) {
+        String authorization = "Negotiate " + context.getToken();
+        if (pendingContexts.size() > PENDING_PURGE_THRESHOLD) {
+            purgeAbandoned();
+        }
+        pendingContexts.put(authorization, new PendingContext(context));
+        return authorization;
+    }
+
+    boolean isAuthenticated(Connection connection) {
+        return connection != null && authenticatedConnections.containsKey(connection);
+    }
+
+    @NotNull
+    @Override
+    public Response intercept(@NotNull Chain chain) throws IOException {
+        Request request = chain.request();
+        Connection connection = chain.connection();
+        String authorization = request.header("Proxy-Authorization");
+        PendingContext pending = authorization != null ? pendingContexts.remove(authorization) : null;
+
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException | RuntimeException e) {
+            if (pending != null) {
+                pending.context.close();
+            }
+            throw e;
+        }
+
+        if (response.code() == 407) {
+            if (connection != null) {
+                authenticatedConnections.remove(connection);
+            }
+            if (pending != null) {
+                pending.context.close();
+            }
+            return response;
+        }
+        if (pending == null || connection == null) {
+            return response;
+        }
+
+        try {
+            String serverToken = negotiateToken(response);
+            if (serverToken != null) {
+                if (!pending.context.complete(serverToken)) {
+                    log.debug("Proxy Negotiate reply did not establish the context on {}", connection);
+                    return response;
+                }
+            } else if (!response.isSuccessful()) {
+                // No reply token to verify, and no explicit success either
+                return response;
+            }
+            authenticatedConnections.put(connection, Boolean.TRUE);
+            return response;
+        } catch (GSSException e) {
+            response.close();
+            throw new IOException("Proxy mutual authentication failed", e);
+        } finally {
+            pending.context.close();
+        }
+    }
+
+    private static String negotiateToken(Response response) {
+        for (String name : new String[]{"Proxy-Authenticate", "Proxy-Authentication-Info"}) {
+            for (String value : response.headers(name)) {
+                if (value.regionMatches(true, 0, "Negotiate ", 0, 10)) {
+                    return value.substring(10).trim();
+                }
+            }
+        }
+        return null;
+    }
+
+    private void purgeAbandoned() {
+        long now = System.nanoTime();
+        pendingContexts.entrySet().removeIf(e -> {
+            if (now - e.getValue().createdNanos < PENDING_MAX_AGE_NANOS) {
+                return false;
+            }
+            e.getValue().context.close();
+            return true;
+        });
+    }
+
+    private static final class PendingContext {
+        private final SpnegoContext context;
+        private final long createdNanos;
+
+        private PendingContext(SpnegoContext context) {
+            this.context = context;
+            this.createdNanos = System.nanoTime();
+        }
+    }
+}
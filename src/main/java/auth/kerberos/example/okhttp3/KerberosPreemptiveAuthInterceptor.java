@@ -0,0 +1,49 @@
+package auth.kerberos.example.okhttp3;
+
+import okhttp3.Connection;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Network interceptor attaching a Negotiate Proxy-Authorization header to plain HTTP requests sent through a known
+ * Kerberos proxy (the one of the connection in use, when the client is spread over several), saving the 407
+ * round-trip the challenge flow needs on every new request.
+ * <p>
+ * Notes:
+ * - Must be registered as a network interceptor, since only those see the connection (and thus the proxy) in use
+ * - Connections already authenticated according to {@link KerberosConnectionAuthInterceptor} get no token
+ * - HTTPS requests are tunneled via CONNECT and authenticated preemptively by {@link KerberosProxyAuthenticator} instead
+ * - If the proxy rejects the token, okhttp hands the 407 to {@link KerberosProxyAuthenticator} as usual, since the
+ * header added here is not visible in the request the authenticator receives
+ */
+public class KerberosPreemptiveAuthInterceptor implements Interceptor {
+    private final KerberosProxyAuthenticator authenticator;
+
+    public KerberosPreemptiveAuthInterceptor(@NotNull KerberosProxyAuthenticator authenticator) {
+        this.authenticator = authenticator;
+    }
+
+    @NotNull
+    @Override
+    public Response intercept(@NotNull Chain chain) throws IOException {
+        Request request = chain.request();
+        Connection connection = chain.connection();
+        if (request.isHttps()
+                || request.header("Proxy-Authorization") != null
+                || connection == null
+                || !authenticator.isKerberosProxy(connection.route().proxy())
+                || authenticator.isAuthenticated(connection)) {
+            return chain.proceed(request);
+        }
+
+        String proxyHost = KerberosProxyAuthenticator.hostOf(connection.route().proxy());
+        return chain.proceed(request.newBuilder()
+                .header("Proxy-Authorization",
+                        authenticator.challengeToken(proxyHost, true, AuthTraceEventListener.of(request)))
+                .build());
+    }
+}
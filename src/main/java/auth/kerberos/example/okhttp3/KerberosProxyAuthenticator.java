@@ -1,7 +1,12 @@
 package auth.kerberos.example.okhttp3;
 
+import auth.kerberos.example.commons.metrics.AuthMetrics;
+import auth.kerberos.example.commons.metrics.AuthMetricsRegistry;
+import auth.kerberos.example.commons.security.KerberosCredentialManager;
 import auth.kerberos.example.commons.security.SpnegoEngine;
+import auth.kerberos.example.commons.security.SpnegoEngineRegistry;
 import okhttp3.Authenticator;
+import okhttp3.Connection;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.Route;
@@ -9,35 +14,215 @@ import org.ietf.jgss.GSSException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Negotiate proxy authenticator. Tokens are generated for the proxy the challenged call actually went through (taken
+ * from the route), each proxy host getting its own {@link SpnegoEngine} and service ticket, so a client spread over
+ * several proxies by a {@link ProxyPoolSelector} negotiates with the right SPN.
+ * <p>
+ * A token that cannot be generated fails the call with an {@link IOException}, see
+ * {@link auth.kerberos.example.commons.security.AuthFailurePolicy} to fail fast while the KDC is down.
+ */
 public class KerberosProxyAuthenticator implements Authenticator {
+    /*
+     * Challenge okhttp uses on the synthetic 407 it hands to the proxy authenticator before opening a CONNECT tunnel
+     * */
+    static final String PREEMPTIVE_CHALLENGE = "OkHttp-Preemptive";
+
     private final String proxyHost;
+    private final Set<String> proxyHosts;
+    private final KerberosCredentialManager credentialManager;
+    private final boolean preemptive;
+    private final SpnegoEngineRegistry engineRegistry;
+    private final KerberosConnectionAuthInterceptor connectionAuth;
+    private final Map<String, HostMeters> meters = new ConcurrentHashMap<>();
 
     public KerberosProxyAuthenticator(@NotNull String proxyHost) {
-        this.proxyHost = proxyHost;
+        this(proxyHost, null);
+    }
+
+    public KerberosProxyAuthenticator(@NotNull String proxyHost,
+                                      @Nullable KerberosCredentialManager credentialManager) {
+        this(proxyHost, credentialManager, false);
+    }
+
+    /**
+     * @param preemptive whether CONNECT tunnels get a Negotiate token up front instead of waiting for the proxy 407.
+     *                   Plain HTTP requests are covered by {@link KerberosPreemptiveAuthInterceptor}
+     */
+    public KerberosProxyAuthenticator(@NotNull String proxyHost,
+                                      @Nullable KerberosCredentialManager credentialManager,
+                                      boolean preemptive) {
+        this(proxyHost, credentialManager, preemptive, SpnegoEngineRegistry.defaultRegistry());
+    }
+
+    public KerberosProxyAuthenticator(@NotNull String proxyHost,
+                                      @Nullable KerberosCredentialManager credentialManager,
+                                      boolean preemptive,
+                                      @NotNull SpnegoEngineRegistry engineRegistry) {
+        this(proxyHost, credentialManager, preemptive, engineRegistry, null);
+    }
+
+    /**
+     * @param connectionAuth per-connection auth tracking, or null to authenticate every challenge independently
+     */
+    public KerberosProxyAuthenticator(@NotNull String proxyHost,
+                                      @Nullable KerberosCredentialManager credentialManager,
+                                      boolean preemptive,
+                                      @NotNull SpnegoEngineRegistry engineRegistry,
+                                      @Nullable KerberosConnectionAuthInterceptor connectionAuth) {
+        this(Collections.singletonList(proxyHost), credentialManager, preemptive, engineRegistry, connectionAuth);
+    }
+
+    /**
+     * @param proxyHosts Kerberos proxies the client may be routed through, the first one is used when a challenge
+     *                   comes without a route
+     */
+    public KerberosProxyAuthenticator(@NotNull List<String> proxyHosts,
+                                      @Nullable KerberosCredentialManager credentialManager,
+                                      boolean preemptive,
+                                      @NotNull SpnegoEngineRegistry engineRegistry,
+                                      @Nullable KerberosConnectionAuthInterceptor connectionAuth) {
+        this.proxyHost = proxyHosts.get(0);
+        this.proxyHosts = new HashSet<>();
+        for (String host : proxyHosts) {
+            this.proxyHosts.add(host.toLowerCase(Locale.ROOT));
+        }
+        this.credentialManager = credentialManager;
+        this.preemptive = preemptive;
+        this.engineRegistry = engineRegistry;
+        this.connectionAuth = connectionAuth;
     }
 
     @Nullable
     @Override
-    public Request authenticate(@Nullable Route route, @NotNull Response response) {
+    public Request authenticate(@Nullable Route route, @NotNull Response response) throws IOException {
+        AuthTraceEventListener trace = AuthTraceEventListener.of(response.request());
+        long start = trace != null ? System.nanoTime() : 0;
+        try {
+            return doAuthenticate(route, response, trace);
+        } finally {
+            if (trace != null) {
+                trace.recordAuthenticate(System.nanoTime() - start);
+            }
+        }
+    }
+
+    @Nullable
+    private Request doAuthenticate(@Nullable Route route,
+                                   @NotNull Response response,
+                                   @Nullable AuthTraceEventListener trace) throws IOException {
+        String host = route != null ? hostOf(route.proxy()) : null;
+        if (host == null) {
+            host = proxyHost;
+        }
+        HostMeters hostMeters = metersFor(host);
+        boolean preemptiveChallenge = PREEMPTIVE_CHALLENGE.equalsIgnoreCase(response.header("Proxy-Authenticate"));
+        if (!preemptiveChallenge) {
+            hostMeters.challenges.increment();
+        }
         if (response.request().header("Proxy-Authorization") != null) {
+            hostMeters.giveUps.increment();
             return null; // Give up, we've already failed to authenticate.
         }
+        if (!preemptive && preemptiveChallenge) {
+            return null; // Preemptive mode is off, let the proxy issue the real challenge
+        }
+
+        // CONNECT tunnels authenticate once per connection anyway, only plain proxied requests are tracked
+        boolean tunnel = route != null && route.requiresTunnel();
+        Request returnObj = response.request().newBuilder()
+                .header("Proxy-Authorization", challengeToken(host, !tunnel, trace))
+                .build();
+
+        return returnObj;
+    }
+
+    /**
+     * Whether the given proxy is one this authenticator negotiates with.
+     */
+    boolean isKerberosProxy(@NotNull Proxy proxy) {
+        String host = hostOf(proxy);
+        return host != null && proxyHosts.contains(host.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Host of an HTTP proxy, null for direct or SOCKS routes.
+     */
+    @Nullable
+    static String hostOf(@NotNull Proxy proxy) {
+        if (proxy.type() != Proxy.Type.HTTP || !(proxy.address() instanceof InetSocketAddress)) {
+            return null;
+        }
+        return ((InetSocketAddress) proxy.address()).getHostString();
+    }
+
+    /**
+     * Whether the given connection already completed Negotiate authentication and needs no token.
+     */
+    boolean isAuthenticated(@Nullable Connection connection) {
+        return connectionAuth != null && connectionAuth.isAuthenticated(connection);
+    }
 
+    @NotNull
+    String challengeToken(@NotNull String host,
+                          boolean trackConnection,
+                          @Nullable AuthTraceEventListener trace) throws IOException {
+        long start = trace != null ? System.nanoTime() : 0;
+        try {
+            return generateChallengeToken(host, trackConnection);
+        } finally {
+            if (trace != null) {
+                trace.recordToken(System.nanoTime() - start);
+            }
+        }
+    }
+
+    @NotNull
+    private String generateChallengeToken(String host, boolean trackConnection) throws IOException {
         // Generate SPNEGO token via GSSAPI wrapper
-        String token = null;
         try {
-            token = SpnegoEngine.instance(
-                    proxyHost,
-                    "spnego-okhttp-" + this.hashCode()).generateToken();
+            String principal = credentialManager != null ? credentialManager.getPrincipalName() : "";
+            return engineRegistry.withEngine(
+                    principal,
+                    SpnegoEngine.DEFAULT_SERVICE_NAME,
+                    host,
+                    SpnegoEngine.GSS_SPNEGO_MECH_OID,
+                    credentialManager,
+                    engine -> {
+                        if (trackConnection && connectionAuth != null) {
+                            return connectionAuth.track(engine.newContext());
+                        }
+                        return "Negotiate " + engine.nextToken();
+                    });
         } catch (GSSException e) {
-            throw new RuntimeException(e);
+            // Fails the call rather than the dispatcher thread, fast while the failure policy keeps the KDC spared
+            throw new IOException("SPNEGO token generation failed for proxy " + host, e);
         }
-        String challengeToken = "Negotiate " + token;
+    }
 
-        Request returnObj = response.request().newBuilder()
-                .header("Proxy-Authorization", challengeToken)
-                .build();
+    private HostMeters metersFor(String host) {
+        HostMeters hostMeters = meters.get(host);
+        return hostMeters != null ? hostMeters : meters.computeIfAbsent(host, HostMeters::new);
+    }
 
-        return returnObj;
+    private static final class HostMeters {
+        private final AuthMetricsRegistry.Counter challenges;
+        private final AuthMetricsRegistry.Counter giveUps;
+
+        private HostMeters(String proxyHost) {
+            this.challenges = AuthMetrics.registry().counter(AuthMetrics.PROXY_CHALLENGES, proxyHost);
+            this.giveUps = AuthMetrics.registry().counter(AuthMetrics.PROXY_GIVE_UPS, proxyHost);
+        }
     }
 }
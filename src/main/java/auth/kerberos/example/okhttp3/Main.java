@@ -1,18 +1,30 @@
 package auth.kerberos.example.okhttp3;
 
+import auth.kerberos.example.commons.io.AsyncResultLogger;
+import auth.kerberos.example.commons.io.ResponseConsumer;
+import auth.kerberos.example.commons.io.ResponseConsumers;
+import auth.kerberos.example.commons.proxy.ProxyPool;
+import auth.kerberos.example.commons.security.AuthFailurePolicy;
 import auth.kerberos.example.commons.security.KerberosCallBackHandler;
+import auth.kerberos.example.commons.metrics.AuthMetrics;
+import auth.kerberos.example.commons.metrics.SimpleAuthMetricsRegistry;
+import auth.kerberos.example.commons.security.GssNameCache;
+import auth.kerberos.example.commons.security.GssWorkerPool;
+import auth.kerberos.example.commons.security.KerberosCredentialManager;
+import auth.kerberos.example.commons.security.SpnegoEngineConfig;
+import auth.kerberos.example.commons.security.SpnegoEngineRegistry;
 import auth.kerberos.example.okhttp3.transport.http.ExampleAsyncCallback;
 import auth.kerberos.example.okhttp3.transport.ws.ProxiedWebSocket;
+import auth.kerberos.example.okhttp3.transport.ws.WebSocketPoolConfig;
 import okhttp3.Call;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import org.jetbrains.annotations.NotNull;
 
-import java.net.InetSocketAddress;
-import java.net.Proxy;
+import javax.security.auth.login.LoginException;
+import java.io.IOException;
 import java.security.Security;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
 
 /**
  * See "HttpClient set credentials for Kerberos authentication":
@@ -25,7 +37,7 @@ import java.util.concurrent.TimeUnit;
  * <p>
  * Notes:
  * - You need to have a valid /etc/krb5.conf in place
- * - Set proper username/password in USER and PASSWORD constants, also PROXY_HOST and PROXY_PORT
+ * - Set proper username/password in USER and PASSWORD constants (or KEYTAB_PATH, see LOGIN_MODE), also PROXIES
  *
  * @see KerberosCallBackHandler
  */
@@ -33,27 +45,71 @@ public class Main {
     public static final String HTTP_HOST = "http://ifconfig.me/ip";
     public static final String WS_HOST = "wss://ws.postman-echo.com/raw";
 
+    private static ProxiedClientFactory clientFactory;
     private static OkHttpClient httpClient;
     private static OkHttpClient wsClient;
+    private static KerberosCredentialManager credentialManager;
+    private static SpnegoEngineRegistry engineRegistry;
 
     public static void main(String[] args) throws InterruptedException {
         final boolean RUN_HTTP_INSTEADOF_WS = true;
+        // Attach Negotiate tokens up front instead of waiting for the proxy 407 challenge
+        final boolean PREEMPTIVE_PROXY_AUTH = true;
+        // Authenticate each keep-alive proxy connection once instead of every request on it
+        final boolean CONNECTION_SCOPED_AUTH = true;
         final int REQUEST_RETRIES = 1000;
         final String USER = "user";
         final String PASSWORD = "pass";
-        final String PROXY_HOST = "proxy.com";
-        final int PROXY_PORT = 3128;
+        // Login mode: PASSWORD answers each KDC login from USER/PASSWORD through the callback handler, deriving the keys
+        // every time. KEYTAB reads the keys from KEYTAB_PATH, DERIVED_KEYS derives them from PASSWORD once at startup
+        final KerberosCredentialManager.LoginMode LOGIN_MODE = KerberosCredentialManager.LoginMode.DERIVED_KEYS;
+        final String KEYTAB_PATH = "/etc/krb5.keytab";
+        // Comma separated host:port list, balanced by in-flight requests and latency with failing proxies ejected
+        final String PROXIES = "proxy.com:3128";
+        // Threads (and queued requests) available for SPNEGO token generation, shared by the HTTP and WS clients
+        final int GSS_WORKER_THREADS = 4;
+        final int GSS_WORKER_QUEUE = 2048;
+        // Outage protection: after AUTH_FAILURE_THRESHOLD failures in a row, logins and tokens fail fast while the KDC is
+        // probed with jittered exponential backoff. Token generation gives up after TOKEN_DEADLINE_MILLIS
+        final int AUTH_FAILURE_THRESHOLD = 3;
+        final long TOKEN_DEADLINE_MILLIS = 5_000;
+        // Pre-generated tokens kept per proxy (0 disables the pool) and their maximum age
+        final int TOKEN_POOL_DEPTH = 16;
+        final long TOKEN_FRESHNESS_MILLIS = 30_000;
+        // Proxy SPN resolution: set CANONICALIZE_PROXY_HOST to false when the SPN is known to be HTTP/PROXY_HOST,
+        // which skips DNS lookups entirely. Canonical names are otherwise cached and refreshed in the background
+        final boolean CANONICALIZE_PROXY_HOST = true;
+        final long PROXY_NAME_TTL_MILLIS = 300_000;
+        // Per-call auth timelines are printed for calls slower than this, plus one in TRACE_SAMPLE_EVERY other calls
+        final long TRACE_SLOW_CALL_MILLIS = 1000;
+        final long TRACE_SAMPLE_EVERY = 100;
+        // Dispatcher and pool shared by the HTTP and WS clients. The per-host limit (okhttp defaults to 5) counts the
+        // origin host, not the proxy: MAX_REQUESTS and the pool size bound the authenticated proxy connections in use
+        final int MAX_REQUESTS = 128;
+        final int MAX_REQUESTS_PER_HOST = 64;
+        final int MAX_IDLE_CONNECTIONS = 64;
+        final long KEEP_ALIVE_MILLIS = 300_000;
+        // Calls enqueued beyond this wait for a slot instead of piling up in the dispatcher queue
+        final int MAX_IN_FLIGHT = 256;
+        // Bodies are streamed, only their first bytes are kept for the result line (see ResponseConsumers for
+        // discard, digest and file sinks)
+        final ResponseConsumer RESPONSE_CONSUMER = ResponseConsumers.preview(256);
+        // WebSockets kept open through the proxy and messages sent per socket pick (1 picks a socket for each message)
+        final int WS_SESSIONS = 4;
+        final int WS_BATCH_MAX_MESSAGES = 32;
 
         System.setProperty("java.security.krb5.conf", "/etc/krb5.conf");
-        // Bypass JAAS requirement and directly authenticate via CallbackHandler
+        // Credentials are kept in the KerberosCredentialManager subject, so JGSS must only look for (and store) tickets there.
+        // Setting this to false instead bypasses JAAS and authenticates via the default CallbackHandler on every token
         // See https://docs.oracle.com/javase/7/docs/technotes/guides/security/jgss/tutorials/BasicClientServer.html
-        System.setProperty("javax.security.auth.useSubjectCredsOnly", "false");
+        System.setProperty("javax.security.auth.useSubjectCredsOnly", "true");
 
-
-        // Set login credentials for CallbackHandler using custom security properties.
+        // Set login credentials for CallbackHandler using custom security properties, only needed for password logins.
         // These security properties are non-standard and custom for our application, thus not colliding w/other auth feature flags
-        Security.setProperty("java.security.krb5.login.user", USER);
-        Security.setProperty("java.security.krb5.login.password", PASSWORD);
+        if (LOGIN_MODE == KerberosCredentialManager.LoginMode.PASSWORD) {
+            Security.setProperty("java.security.krb5.login.user", USER);
+            Security.setProperty("java.security.krb5.login.password", PASSWORD);
+        }
 
         // Setting default callback handler to avoid prompting for password on command line
         // check https://github.com/frohoff/jdk8u-dev-jdk/blob/master/src/share/classes/sun/security/jgss/GSSUtil.java#L241
@@ -61,26 +117,83 @@ public class Main {
 
         //enableDebugSystemProperties();
 
-        setupHTTPClient(PROXY_HOST, PROXY_PORT);
-        setupWSClient(PROXY_HOST, PROXY_PORT);
+        // Metrics are resolved when components are built, so the registry goes in first
+        SimpleAuthMetricsRegistry metrics = new SimpleAuthMetricsRegistry();
+        AuthMetrics.setRegistry(metrics);
 
-        if (RUN_HTTP_INSTEADOF_WS) {
-            System.out.println("********Performing HTTP requests");
-            CountDownLatch countDownLatch = new CountDownLatch(REQUEST_RETRIES);
-            for (int i = 0; i <= REQUEST_RETRIES; i++) {
-                // Perform async call
-                newHTTPCall().enqueue(new ExampleAsyncCallback(countDownLatch));
-            }
-            countDownLatch.await();
-        } else {
-            System.out.println("********Establishing WebSocket connection");
-            CountDownLatch countDownLatch = new CountDownLatch(REQUEST_RETRIES);
-            ProxiedWebSocket wsWrapper = new ProxiedWebSocket(wsClient, countDownLatch);
-            wsWrapper.run(WS_HOST);
-            countDownLatch.await();
-            wsWrapper.close();
+        // Log in once up front, tickets are renewed in the background from here on
+        try {
+            credentialManager = KerberosCredentialManager.create(LOGIN_MODE, USER, PASSWORD.toCharArray(), KEYTAB_PATH);
+        } catch (IOException e) {
+            throw new IllegalStateException("Kerberos login failed", e);
         }
+        // Closed whatever happens below, which also wipes derived keys from the disk
+        try {
+            try {
+                credentialManager.login();
+            } catch (LoginException e) {
+                throw new IllegalStateException("Kerberos login failed", e);
+            }
+            AuthFailurePolicy failurePolicy = new AuthFailurePolicy()
+                    .setFailureThreshold(AUTH_FAILURE_THRESHOLD)
+                    .setTokenDeadlineMillis(TOKEN_DEADLINE_MILLIS);
+            credentialManager.setLoginFailurePolicy(failurePolicy);
+
+            engineRegistry = new SpnegoEngineRegistry(new SpnegoEngineConfig()
+                    .setWorkerPool(new GssWorkerPool(GSS_WORKER_THREADS, GSS_WORKER_QUEUE))
+                    .setNameCache(new GssNameCache(PROXY_NAME_TTL_MILLIS, CANONICALIZE_PROXY_HOST, true))
+                    .setFailurePolicy(failurePolicy)
+                    .setTokenPoolDepth(TOKEN_POOL_DEPTH)
+                    .setTokenFreshnessMillis(TOKEN_FRESHNESS_MILLIS));
+            AuthMetrics.registry().gauge(AuthMetrics.ENGINE_REGISTRY_SIZE, engineRegistry::size);
+
+            AsyncResultLogger resultLogger = new AsyncResultLogger();
+            AuthTraceEventListener.Factory traceFactory =
+                    new AuthTraceEventListener.Factory(TRACE_SLOW_CALL_MILLIS, TRACE_SAMPLE_EVERY, resultLogger::log);
+            ProxyPool proxyPool = ProxyPool.parse(PROXIES);
+            clientFactory = new ProxiedClientFactory(proxyPool, credentialManager, engineRegistry,
+                    new ProxiedClientConfig()
+                            .setPreemptive(PREEMPTIVE_PROXY_AUTH)
+                            .setConnectionScoped(CONNECTION_SCOPED_AUTH)
+                            .setMaxRequests(MAX_REQUESTS)
+                            .setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST)
+                            .setMaxIdleConnections(MAX_IDLE_CONNECTIONS)
+                            .setKeepAliveMillis(KEEP_ALIVE_MILLIS)
+                            .setMaxInFlight(MAX_IN_FLIGHT));
+            setupHTTPClient(traceFactory);
+            setupWSClient();
+
+            if (RUN_HTTP_INSTEADOF_WS) {
+                System.out.println("********Performing HTTP requests");
+                CountDownLatch countDownLatch = new CountDownLatch(REQUEST_RETRIES);
+                for (int i = 0; i <= REQUEST_RETRIES; i++) {
+                    // Perform async call
+                    clientFactory.enqueue(newHTTPCall(),
+                            new ExampleAsyncCallback(countDownLatch, RESPONSE_CONSUMER, resultLogger));
+                }
+                countDownLatch.await();
+            } else {
+                System.out.println("********Establishing WebSocket connection");
+                CountDownLatch countDownLatch = new CountDownLatch(REQUEST_RETRIES);
+                ProxiedWebSocket wsWrapper = new ProxiedWebSocket(wsClient,
+                        new WebSocketPoolConfig()
+                                .setSessions(WS_SESSIONS)
+                                .setBatchMaxMessages(WS_BATCH_MAX_MESSAGES),
+                        countDownLatch,
+                        resultLogger);
+                wsWrapper.run(WS_HOST, REQUEST_RETRIES);
+                countDownLatch.await();
+                wsWrapper.close();
+            }
 
+            resultLogger.close();
+            System.out.println("********AUTH METRICS");
+            System.out.print(metrics.report());
+            clientFactory.close();
+            engineRegistry.close();
+        } finally {
+            credentialManager.close();
+        }
         System.out.println("********DONE");
     }
 
@@ -93,23 +206,12 @@ public class Main {
         return httpClient.newCall(request);
     }
 
-    @NotNull
-    private static void setupHTTPClient(String proxyHost, int proxyPort) {
-        httpClient = new OkHttpClient.Builder()
-                .proxy(new Proxy(Proxy.Type.HTTP, new
-                        InetSocketAddress(proxyHost, proxyPort)))
-                .proxyAuthenticator(new KerberosProxyAuthenticator(proxyHost))
-                .build();
+    private static void setupHTTPClient(AuthTraceEventListener.Factory traceFactory) {
+        httpClient = traceFactory.install(clientFactory.newBuilder()).build();
     }
 
-    @NotNull
-    private static void setupWSClient(String proxyHost, int proxyPort) {
-        wsClient = new OkHttpClient.Builder()
-                .readTimeout(0, TimeUnit.MILLISECONDS)
-                .proxy(new Proxy(Proxy.Type.HTTP, new
-                        InetSocketAddress(proxyHost, proxyPort)))
-                .proxyAuthenticator(new KerberosProxyAuthenticator(proxyHost))
-                .build();
+    private static void setupWSClient() {
+        wsClient = clientFactory.webSocketClient();
     }
 
     private static void enableDebugSystemProperties() {
@@ -0,0 +1,109 @@
+package auth.kerberos.example.okhttp3;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatcher, connection pool and admission options of a {@link ProxiedClientFactory}.
+ * The per-host limit counts the origin host of each call, not the proxy: the global limit and the admission limit
+ * are the ones bounding the calls sent through the proxy at once.
+ */
+public class ProxiedClientConfig {
+    public static final int DEFAULT_MAX_REQUESTS = 128;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 64;
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 64;
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    private int maxRequests = DEFAULT_MAX_REQUESTS;
+    private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+    private int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+    private long keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private boolean preemptive;
+    private boolean connectionScoped;
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    /**
+     * Calls the dispatcher runs at once across all hosts.
+     */
+    public ProxiedClientConfig setMaxRequests(int maxRequests) {
+        this.maxRequests = maxRequests;
+        return this;
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    /**
+     * Calls the dispatcher runs at once per origin host (okhttp defaults to 5).
+     */
+    public ProxiedClientConfig setMaxRequestsPerHost(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        return this;
+    }
+
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    /**
+     * Idle keep-alive connections kept in the shared pool, each one already authenticated to the proxy when
+     * connection-scoped auth is on.
+     */
+    public ProxiedClientConfig setMaxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+        return this;
+    }
+
+    public long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+
+    /**
+     * How long an idle connection stays in the pool, keep it below the proxy idle timeout.
+     */
+    public ProxiedClientConfig setKeepAliveMillis(long keepAliveMillis) {
+        this.keepAliveMillis = keepAliveMillis;
+        return this;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Calls admitted by {@link ProxiedClientFactory#enqueue} before callers block, running or queued in the dispatcher.
+     */
+    public ProxiedClientConfig setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    public boolean isPreemptive() {
+        return preemptive;
+    }
+
+    /**
+     * Attach Negotiate tokens up front instead of waiting for the proxy 407 challenge.
+     */
+    public ProxiedClientConfig setPreemptive(boolean preemptive) {
+        this.preemptive = preemptive;
+        return this;
+    }
+
+    public boolean isConnectionScoped() {
+        return connectionScoped;
+    }
+
+    /**
+     * Authenticate each keep-alive proxy connection once instead of every request on it.
+     */
+    public ProxiedClientConfig setConnectionScoped(boolean connectionScoped) {
+        this.connectionScoped = connectionScoped;
+        return this;
+    }
+}
@@ -0,0 +1,210 @@
+package auth.kerberos.example.okhttp3;
+
+import auth.kerberos.example.commons.proxy.ProxyEndpoint;
+import auth.kerberos.example.commons.proxy.ProxyPool;
+import auth.kerberos.example.commons.security.KerberosCredentialManager;
+import auth.kerberos.example.commons.security.SpnegoEngineRegistry;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the HTTP and WebSocket clients of the okhttp3 flavor on top of one {@link ConnectionPool} and one
+ * {@link Dispatcher}, so both share the authenticated proxy connections and the dispatcher threads.
+ * <p>
+ * Calls submitted through {@link #enqueue(Call, Callback)} go through a fair admission limit first: once
+ * {@link ProxiedClientConfig#getMaxInFlight()} calls are running or queued in the dispatcher, further callers block
+ * in arrival order until one completes, instead of piling up unbounded in the dispatcher queue.
+ * <p>
+ * Notes:
+ * - Clients derived from the same base client share pool, dispatcher, authenticator and interceptors
+ * - WebSocket calls leave the dispatcher once upgraded, so open sockets do not count against the request limits
+ * - The static {@code proxiedClientBuilder} methods wire proxy, authenticator and interceptors for standalone clients
+ */
+public class ProxiedClientFactory implements Closeable {
+    private final ConnectionPool connectionPool;
+    private final Dispatcher dispatcher;
+    private final OkHttpClient baseClient;
+    private final Semaphore admission;
+
+    public ProxiedClientFactory(@NotNull String proxyHost,
+                                int proxyPort,
+                                @Nullable KerberosCredentialManager credentialManager,
+                                @NotNull SpnegoEngineRegistry engineRegistry,
+                                @NotNull ProxiedClientConfig config) {
+        this(proxiedClientBuilder(proxyHost, proxyPort, credentialManager, engineRegistry,
+                config.isPreemptive(), config.isConnectionScoped()), config);
+    }
+
+    /**
+     * Factory whose clients balance their connections over the given proxies.
+     */
+    public ProxiedClientFactory(@NotNull ProxyPool proxyPool,
+                                @Nullable KerberosCredentialManager credentialManager,
+                                @NotNull SpnegoEngineRegistry engineRegistry,
+                                @NotNull ProxiedClientConfig config) {
+        this(proxiedClientBuilder(proxyPool, credentialManager, engineRegistry,
+                config.isPreemptive(), config.isConnectionScoped()), config);
+    }
+
+    private ProxiedClientFactory(OkHttpClient.Builder proxiedBuilder, ProxiedClientConfig config) {
+        this.connectionPool = new ConnectionPool(
+                config.getMaxIdleConnections(), config.getKeepAliveMillis(), TimeUnit.MILLISECONDS);
+        this.dispatcher = new Dispatcher();
+        this.dispatcher.setMaxRequests(config.getMaxRequests());
+        this.dispatcher.setMaxRequestsPerHost(config.getMaxRequestsPerHost());
+        this.admission = new Semaphore(config.getMaxInFlight(), true);
+        this.baseClient = proxiedBuilder
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .build();
+    }
+
+    /**
+     * Client builder routed through the Kerberos proxy, with the authenticator and the optional preemptive and
+     * connection-scoped auth interceptors wired in.
+     */
+    @NotNull
+    public static OkHttpClient.Builder proxiedClientBuilder(String proxyHost,
+                                                            int proxyPort,
+                                                            KerberosCredentialManager credentialManager,
+                                                            SpnegoEngineRegistry engineRegistry,
+                                                            boolean preemptive,
+                                                            boolean connectionScoped) {
+        KerberosConnectionAuthInterceptor connectionAuth =
+                connectionScoped ? new KerberosConnectionAuthInterceptor() : null;
+        KerberosProxyAuthenticator authenticator = new KerberosProxyAuthenticator(
+                proxyHost, credentialManager, preemptive, engineRegistry, connectionAuth);
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .proxy(new Proxy(Proxy.Type.HTTP, new
+                        InetSocketAddress(proxyHost, proxyPort)));
+        return withProxyAuth(builder, authenticator, connectionAuth, preemptive);
+    }
+
+    /**
+     * Client builder balancing new connections over a pool of Kerberos proxies, negotiating with whichever proxy each
+     * connection went to.
+     */
+    @NotNull
+    public static OkHttpClient.Builder proxiedClientBuilder(ProxyPool proxyPool,
+                                                            KerberosCredentialManager credentialManager,
+                                                            SpnegoEngineRegistry engineRegistry,
+                                                            boolean preemptive,
+                                                            boolean connectionScoped) {
+        KerberosConnectionAuthInterceptor connectionAuth =
+                connectionScoped ? new KerberosConnectionAuthInterceptor() : null;
+        List<String> proxyHosts = new ArrayList<>();
+        for (ProxyEndpoint endpoint : proxyPool.endpoints()) {
+            proxyHosts.add(endpoint.getHost());
+        }
+        KerberosProxyAuthenticator authenticator = new KerberosProxyAuthenticator(
+                proxyHosts, credentialManager, preemptive, engineRegistry, connectionAuth);
+        ProxyPoolSelector proxySelector = new ProxyPoolSelector(proxyPool);
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .proxySelector(proxySelector)
+                // First network interceptor, so latency covers the auth handling of the ones below
+                .addNetworkInterceptor(proxySelector.interceptor());
+        return withProxyAuth(builder, authenticator, connectionAuth, preemptive);
+    }
+
+    private static OkHttpClient.Builder withProxyAuth(OkHttpClient.Builder builder,
+                                                      KerberosProxyAuthenticator authenticator,
+                                                      KerberosConnectionAuthInterceptor connectionAuth,
+                                                      boolean preemptive) {
+        builder.proxyAuthenticator(authenticator);
+        if (preemptive) {
+            builder.addNetworkInterceptor(new KerberosPreemptiveAuthInterceptor(authenticator));
+        }
+        if (connectionAuth != null) {
+            builder.addNetworkInterceptor(connectionAuth);
+        }
+        return builder;
+    }
+
+    /**
+     * Builder for a client sharing this factory's pool and dispatcher, for per-client tweaks such as event listeners.
+     */
+    @NotNull
+    public OkHttpClient.Builder newBuilder() {
+        return baseClient.newBuilder();
+    }
+
+    @NotNull
+    public OkHttpClient httpClient() {
+        return baseClient;
+    }
+
+    /**
+     * Client for long-lived WebSockets, with read timeouts disabled.
+     */
+    @NotNull
+    public OkHttpClient webSocketClient() {
+        return baseClient.newBuilder()
+                .readTimeout(0, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Enqueues the call once an in-flight slot is available, blocking until then.
+     */
+    public void enqueue(@NotNull Call call, @NotNull Callback callback) throws InterruptedException {
+        admission.acquire();
+        try {
+            enqueueAdmitted(call, callback);
+        } catch (RuntimeException | Error e) {
+            // Not enqueued (e.g. call already executed, dispatcher shut down), so no callback will free the slot
+            admission.release();
+            throw e;
+        }
+    }
+
+    private void enqueueAdmitted(Call call, Callback callback) {
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                try {
+                    callback.onFailure(call, e);
+                } finally {
+                    admission.release();
+                }
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
+                try {
+                    callback.onResponse(call, response);
+                } finally {
+                    admission.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Calls admitted and not completed yet.
+     */
+    public int inFlight() {
+        return dispatcher.runningCallsCount() + dispatcher.queuedCallsCount();
+    }
+
+    @Override
+    public void close() {
+        // Shut the shared dispatcher threads down and drop the pooled connections so the process can exit cleanly
+        dispatcher.executorService().shutdown();
+        connectionPool.evictAll();
+    }
+}
@@ -0,0 +1,99 @@
+package auth.kerberos.example.okhttp3;
+
+import auth.kerberos.example.commons.proxy.ProxyEndpoint;
+import auth.kerberos.example.commons.proxy.ProxyPool;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ProxySelector} spreading new okhttp connections over a {@link ProxyPool}.
+ * <p>
+ * okhttp asks the selector when it needs a new connection and tries the returned proxies in order, so the list is the
+ * pool ranking, best first. Connect failures are fed back to the pool; request latency and in-flight counts come from
+ * {@link #interceptor()}, which must be registered as a network interceptor.
+ * <p>
+ * Notes:
+ * - Requests reuse pooled keep-alive connections regardless of proxy, balancing happens per new connection
+ * - Proxy addresses are handed over unresolved, okhttp resolves them through its own Dns
+ */
+public class ProxyPoolSelector extends ProxySelector {
+    private final ProxyPool pool;
+    private final Map<ProxyEndpoint, Proxy> proxies = new IdentityHashMap<>();
+
+    public ProxyPoolSelector(@NotNull ProxyPool pool) {
+        this.pool = pool;
+        for (ProxyEndpoint endpoint : pool.endpoints()) {
+            proxies.put(endpoint, new Proxy(Proxy.Type.HTTP,
+                    InetSocketAddress.createUnresolved(endpoint.getHost(), endpoint.getPort())));
+        }
+    }
+
+    @NotNull
+    public ProxyPool pool() {
+        return pool;
+    }
+
+    @Override
+    public List<Proxy> select(URI uri) {
+        List<ProxyEndpoint> ranked = pool.ranked();
+        List<Proxy> result = new ArrayList<>(ranked.size());
+        for (ProxyEndpoint endpoint : ranked) {
+            result.add(proxies.get(endpoint));
+        }
+        return result;
+    }
+
+    @Override
+    public void connectFailed(URI uri, SocketAddress address, IOException e) {
+        ProxyEndpoint endpoint = endpointOf(address);
+        if (endpoint != null) {
+            pool.connectFailed(endpoint);
+        }
+    }
+
+    /**
+     * Network interceptor reporting each request to the pool entry of the proxy its connection goes through.
+     */
+    @NotNull
+    public Interceptor interceptor() {
+        return chain -> {
+            ProxyEndpoint endpoint = chain.connection() != null
+                    ? endpointOf(chain.connection().route().proxy().address())
+                    : null;
+            if (endpoint == null) {
+                return chain.proceed(chain.request());
+            }
+            pool.started(endpoint);
+            long start = System.nanoTime();
+            Response response;
+            try {
+                response = chain.proceed(chain.request());
+            } catch (IOException | RuntimeException e) {
+                pool.failed(endpoint);
+                throw e;
+            }
+            pool.succeeded(endpoint, System.nanoTime() - start);
+            return response;
+        };
+    }
+
+    private ProxyEndpoint endpointOf(SocketAddress address) {
+        if (!(address instanceof InetSocketAddress)) {
+            return null;
+        }
+        InetSocketAddress socketAddress = (InetSocketAddress) address;
+        return pool.find(socketAddress.getHostString(), socketAddress.getPort());
+    }
+}
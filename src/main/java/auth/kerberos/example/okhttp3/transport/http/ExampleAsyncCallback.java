@@ -1,5 +1,7 @@
 package auth.kerberos.example.okhttp3.transport.http;
 
+import auth.kerberos.example.commons.io.AsyncResultLogger;
+import auth.kerberos.example.commons.io.ResponseConsumer;
 import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.Response;
@@ -7,18 +9,27 @@ import okhttp3.ResponseBody;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.concurrent.CountDownLatch;
 
+/**
+ * Streams each response body through a {@link ResponseConsumer} and hands the result line to an
+ * {@link AsyncResultLogger}, so neither the body nor console output holds up the dispatcher threads.
+ */
 public class ExampleAsyncCallback implements Callback {
     private final CountDownLatch countDownLatch;
+    private final ResponseConsumer consumer;
+    private final AsyncResultLogger resultLogger;
 
-    public ExampleAsyncCallback(CountDownLatch countDownLatch) {
+    public ExampleAsyncCallback(CountDownLatch countDownLatch, ResponseConsumer consumer, AsyncResultLogger resultLogger) {
         this.countDownLatch = countDownLatch;
+        this.consumer = consumer;
+        this.resultLogger = resultLogger;
     }
 
     @Override
     public void onFailure(@NotNull Call call, @NotNull IOException e) {
-        e.printStackTrace();
+        resultLogger.log("ERROR EXECUTING REQUEST (%s): %s", call.request().url(), e);
         countDownLatch.countDown();
     }
 
@@ -27,21 +38,13 @@ public class ExampleAsyncCallback implements Callback {
         try (ResponseBody responseBody = response.body()) {
             if (!response.isSuccessful()) throw new IOException("Unexpected code " + response);
 
-            synchronized (this) {
-                System.out.println("===================================================");
-                System.out.printf("RESPONSE CODE (%s): %s%n",
-                        call.request().url(),
-                        responseBody.toString(),
-                        response.code());
-
-                System.out.println(responseBody.string());
-                System.out.println("===================================================");
+            try (InputStream body = responseBody.byteStream()) {
+                resultLogger.log("RESPONSE CODE (%s): %d %s", call.request().url(), response.code(), consumer.consume(body));
             }
-
-            response.close();
-            countDownLatch.countDown();
         } catch (Exception e) {
-            System.out.printf("ERROR EXECUTING REQUEST: %s - %s", e.getMessage(), e.getCause());
+            resultLogger.log("ERROR EXECUTING REQUEST: %s - %s", e.getMessage(), e.getCause());
+        } finally {
+            countDownLatch.countDown();
         }
     }
 }
@@ -0,0 +1,20 @@
+package auth.kerberos.example.okhttp3.transport.ws;
+
+/**
+ * Processes inbound WebSocket frames on an {@link InboundMessagePipeline} consumer thread.
+ * <p>
+ * Every consumer thread calls its handler sequentially, messages of one socket always reach the same thread in
+ * arrival order. A handler shared by several consumers must be thread-safe.
+ */
+public interface InboundHandler {
+    /**
+     * @param message reused slot, only valid during this call
+     */
+    void onMessage(InboundMessage message) throws Exception;
+
+    /**
+     * Called after each batch, for handlers that buffer or flush per batch.
+     */
+    default void onBatchEnd() {
+    }
+}
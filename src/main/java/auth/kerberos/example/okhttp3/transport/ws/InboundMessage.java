@@ -0,0 +1,58 @@
+package auth.kerberos.example.okhttp3.transport.ws;
+
+import okhttp3.WebSocket;
+import okio.ByteString;
+
+/**
+ * Preallocated ring buffer slot of an {@link InboundMessagePipeline}, holding one received frame.
+ * <p>
+ * Slots are reused: a message is only valid for the duration of the {@link InboundHandler#onMessage} call it is
+ * passed to. Binary payloads are the {@link ByteString} okhttp delivered, {@link ByteString#asByteBuffer()} exposes
+ * them without copying.
+ */
+public final class InboundMessage {
+    private WebSocket socket;
+    private String text;
+    private ByteString bytes;
+    private long receivedNanos;
+
+    void set(WebSocket socket, String text, ByteString bytes, long receivedNanos) {
+        this.socket = socket;
+        this.text = text;
+        this.bytes = bytes;
+        this.receivedNanos = receivedNanos;
+    }
+
+    void clear() {
+        set(null, null, null, 0);
+    }
+
+    public WebSocket socket() {
+        return socket;
+    }
+
+    public boolean isBinary() {
+        return bytes != null;
+    }
+
+    /**
+     * Text payload, null for binary frames.
+     */
+    public String text() {
+        return text;
+    }
+
+    /**
+     * Binary payload, null for text frames.
+     */
+    public ByteString bytes() {
+        return bytes;
+    }
+
+    /**
+     * {@link System#nanoTime()} at which the socket reader handed the frame over.
+     */
+    public long receivedNanos() {
+        return receivedNanos;
+    }
+}
@@ -0,0 +1,409 @@
+package auth.kerberos.example.okhttp3.transport.ws;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * WebSocket listener moving inbound frames off the okhttp reader threads.
+ * <p>
+ * The reader thread only copies the frame reference into a slot of a bounded, preallocated ring buffer and returns.
+ * Dedicated consumer threads take the filled slots in batches and run the {@link InboundHandler} on them in place.
+ * Sockets are sharded over the consumers, one ring each, so per-socket ordering is kept. When a ring is full the
+ * {@link OverflowPolicy} decides between blocking the reader (TCP backpressure to the sender), dropping the frame or
+ * closing the socket.
+ * <p>
+ * Notes:
+ * - Lifecycle events (open, closing, closed, failure) are forwarded to the optional listener on the reader thread
+ * - {@link #stats()} reports received, processed and dropped frames and the receive-to-process lag per socket
+ * - A closed socket is folded into the closed totals by its consumer, once the frames it had buffered are processed
+ */
+public class InboundMessagePipeline extends WebSocketListener implements Closeable {
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    public enum OverflowPolicy {
+        /*
+         * Block the socket reader until there is room, which stops reading from the socket
+         * */
+        BLOCK,
+        /*
+         * Drop the frame and count it
+         * */
+        DROP,
+        /*
+         * Drop the frame and close the socket with 1008 (policy violation)
+         * */
+        CLOSE_SOCKET
+    }
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final InboundHandler handler;
+    private final WebSocketListener lifecycle;
+    private final OverflowPolicy overflowPolicy;
+    private final int batchSize;
+    private final Ring[] rings;
+    private final Map<WebSocket, SocketStats> sockets = new ConcurrentHashMap<>();
+    private final AtomicInteger socketIds = new AtomicInteger();
+    /*
+     * Totals of closed sockets, so reconnecting sockets do not grow the per-socket map
+     * */
+    private final SocketStats retired = new SocketStats(0, null, null);
+    private volatile boolean closed;
+
+    public InboundMessagePipeline(@NotNull InboundHandler handler, @Nullable WebSocketListener lifecycle) {
+        this(handler, lifecycle, 1, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param consumers  consumer threads, each with its own ring
+     * @param capacity   slots per ring, rounded up to a power of two
+     * @param batchSize  messages a consumer takes per batch at most
+     */
+    public InboundMessagePipeline(@NotNull InboundHandler handler,
+                                  @Nullable WebSocketListener lifecycle,
+                                  int consumers,
+                                  int capacity,
+                                  int batchSize,
+                                  @NotNull OverflowPolicy overflowPolicy) {
+        this.handler = handler;
+        this.lifecycle = lifecycle;
+        this.overflowPolicy = overflowPolicy;
+        this.batchSize = batchSize;
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.rings = new Ring[consumers];
+        for (int i = 0; i < consumers; i++) {
+            rings[i] = new Ring(size, "ws-inbound-" + (i + 1));
+        }
+    }
+
+    public String stats() {
+        StringBuilder sb = new StringBuilder();
+        for (SocketStats stats : sockets.values()) {
+            sb.append(stats).append('\n');
+        }
+        if (retired.received.sum() > 0) {
+            sb.append("closed ").append(retired).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Processes the frames already buffered, then stops the consumer threads.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Ring ring : rings) {
+            ring.signalClose();
+        }
+        for (Ring ring : rings) {
+            try {
+                ring.consumer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onMessage(@NotNull WebSocket webSocket, @NotNull String text) {
+        publish(webSocket, text, null);
+    }
+
+    @Override
+    public void onMessage(@NotNull WebSocket webSocket, @NotNull ByteString bytes) {
+        publish(webSocket, null, bytes);
+    }
+
+    @Override
+    public void onOpen(@NotNull WebSocket webSocket, @NotNull Response response) {
+        statsFor(webSocket);
+        if (lifecycle != null) {
+            lifecycle.onOpen(webSocket, response);
+        }
+    }
+
+    @Override
+    public void onClosing(@NotNull WebSocket webSocket, int code, @NotNull String reason) {
+        if (lifecycle != null) {
+            lifecycle.onClosing(webSocket, code, reason);
+        }
+    }
+
+    @Override
+    public void onClosed(@NotNull WebSocket webSocket, int code, @NotNull String reason) {
+        retire(webSocket);
+        if (lifecycle != null) {
+            lifecycle.onClosed(webSocket, code, reason);
+        }
+    }
+
+    @Override
+    public void onFailure(@NotNull WebSocket webSocket, @NotNull Throwable t, @Nullable Response response) {
+        retire(webSocket);
+        if (lifecycle != null) {
+            lifecycle.onFailure(webSocket, t, response);
+        }
+    }
+
+    private void publish(WebSocket webSocket, String text, ByteString bytes) {
+        SocketStats stats = statsFor(webSocket);
+        stats.received.increment();
+        if (closed || !stats.ring.offer(webSocket, text, bytes, stats)) {
+            stats.dropped.increment();
+        }
+    }
+
+    private void retire(WebSocket webSocket) {
+        SocketStats stats = sockets.get(webSocket);
+        if (stats != null && !stats.ring.retire(stats)) {
+            // Consumer already stopped, nothing of the socket is left to process
+            fold(stats);
+        }
+    }
+
+    private void fold(SocketStats stats) {
+        if (sockets.remove(stats.webSocket, stats)) {
+            retired.received.add(stats.received.sum());
+            retired.processed.add(stats.processed.sum());
+            retired.dropped.add(stats.dropped.sum());
+            retired.lagNanos.add(stats.lagNanos.sum());
+            retired.maxLagNanos.accumulate(stats.maxLagNanos.get());
+        }
+    }
+
+    private SocketStats statsFor(WebSocket webSocket) {
+        SocketStats stats = sockets.get(webSocket);
+        if (stats == null) {
+            stats = sockets.computeIfAbsent(webSocket, ws -> {
+                int id = socketIds.incrementAndGet();
+                return new SocketStats(id, ws, rings[(id - 1) % rings.length]);
+            });
+        }
+        return stats;
+    }
+
+    private static final class SocketStats {
+        private final int id;
+        private final WebSocket webSocket;
+        private final Ring ring;
+        private final LongAdder received = new LongAdder();
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder lagNanos = new LongAdder();
+        private final LongAccumulator maxLagNanos = new LongAccumulator(Math::max, 0);
+        private final long createdNanos = System.nanoTime();
+        /*
+         * Ring sequence after the last frame of the closed socket, guarded by the ring lock
+         * */
+        private long retireAt = -1;
+
+        private SocketStats(int id, WebSocket webSocket, Ring ring) {
+            this.id = id;
+            this.webSocket = webSocket;
+            this.ring = ring;
+        }
+
+        private void recordProcessed(long lag) {
+            processed.increment();
+            lagNanos.add(lag);
+            maxLagNanos.accumulate(lag);
+        }
+
+        @Override
+        public String toString() {
+            long done = processed.sum();
+            double seconds = Math.max(1, System.nanoTime() - createdNanos) / 1e9;
+            return String.format("socket-%d received=%d processed=%d dropped=%d rate=%.1f/s lag mean=%.3fms max=%.3fms",
+                    id, received.sum(), done, dropped.sum(), done / seconds,
+                    done > 0 ? lagNanos.sum() / 1e6 / done : 0.0, maxLagNanos.get() / 1e6);
+        }
+    }
+
+    /**
+     * Multi-producer single-consumer ring. Producers fill the slot at {@code tail} under the lock; the consumer reads
+     * the slots between {@code head} and the {@code tail} it observed outside the lock, since producers never touch
+     * them until {@code head} moves past.
+     */
+    private final class Ring {
+        private final InboundMessage[] slots;
+        private final int mask;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final SocketStats[] owners;
+        private final List<SocketStats> retiring = new ArrayList<>();
+        private final Thread consumer;
+        private long head;
+        private long tail;
+        private boolean stopped;
+
+        private Ring(int size, String name) {
+            this.slots = new InboundMessage[size];
+            this.owners = new SocketStats[size];
+            for (int i = 0; i < size; i++) {
+                slots[i] = new InboundMessage();
+            }
+            this.mask = size - 1;
+            this.consumer = new Thread(this::consume, name);
+            this.consumer.setDaemon(true);
+            this.consumer.start();
+        }
+
+        private boolean offer(WebSocket webSocket, String text, ByteString bytes, SocketStats stats) {
+            lock.lock();
+            try {
+                while (tail - head == slots.length) {
+                    if (overflowPolicy == OverflowPolicy.DROP || closed) {
+                        return false;
+                    }
+                    if (overflowPolicy == OverflowPolicy.CLOSE_SOCKET) {
+                        webSocket.close(1008, "Inbound buffer overflow");
+                        return false;
+                    }
+                    try {
+                        notFull.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+                int index = (int) (tail & mask);
+                slots[index].set(webSocket, text, bytes, System.nanoTime());
+                owners[index] = stats;
+                if (tail++ == head) {
+                    notEmpty.signal();
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Hands the closed socket to the consumer, which folds it once the frames published before are processed.
+         *
+         * @return false if the consumer is stopped
+         */
+        private boolean retire(SocketStats stats) {
+            lock.lock();
+            try {
+                if (stopped) {
+                    return false;
+                }
+                if (stats.retireAt < 0) {
+                    stats.retireAt = tail;
+                    retiring.add(stats);
+                    notEmpty.signal();
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /*
+         * Closed sockets whose frames are all processed, called by the consumer under the lock
+         * */
+        private List<SocketStats> takeRetired() {
+            List<SocketStats> due = null;
+            for (Iterator<SocketStats> it = retiring.iterator(); it.hasNext(); ) {
+                SocketStats stats = it.next();
+                if (stats.retireAt <= head) {
+                    it.remove();
+                    if (due == null) {
+                        due = new ArrayList<>();
+                    }
+                    due.add(stats);
+                }
+            }
+            return due;
+        }
+
+        private void signalClose() {
+            lock.lock();
+            try {
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void consume() {
+            while (true) {
+                long from;
+                long to;
+                lock.lock();
+                try {
+                    while (head == tail && retiring.isEmpty()) {
+                        if (closed) {
+                            stopped = true;
+                            return;
+                        }
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    from = head;
+                    to = Math.min(tail, head + batchSize);
+                } finally {
+                    lock.unlock();
+                }
+
+                for (long seq = from; seq < to; seq++) {
+                    int index = (int) (seq & mask);
+                    InboundMessage message = slots[index];
+                    owners[index].recordProcessed(System.nanoTime() - message.receivedNanos());
+                    try {
+                        handler.onMessage(message);
+                    } catch (Exception e) {
+                        log.warn("Inbound WebSocket handler failed", e);
+                    }
+                    message.clear();
+                    owners[index] = null;
+                }
+                if (to > from) {
+                    try {
+                        handler.onBatchEnd();
+                    } catch (RuntimeException e) {
+                        log.warn("Inbound WebSocket handler failed", e);
+                    }
+                }
+
+                List<SocketStats> due;
+                lock.lock();
+                try {
+                    head = to;
+                    notFull.signalAll();
+                    due = retiring.isEmpty() ? null : takeRetired();
+                } finally {
+                    lock.unlock();
+                }
+                if (due != null) {
+                    for (SocketStats stats : due) {
+                        fold(stats);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,62 +1,79 @@
 package auth.kerberos.example.okhttp3.transport.ws;
 
+import auth.kerberos.example.commons.io.AsyncResultLogger;
 import okhttp3.*;
-import okio.ByteString;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
-public final class ProxiedWebSocket extends WebSocketListener {
+public final class ProxiedWebSocket extends WebSocketListener implements InboundHandler {
     private final OkHttpClient wsClient;
+    private final WebSocketPoolConfig poolConfig;
     private final CountDownLatch countDownLatch;
+    private final AsyncResultLogger resultLogger;
+    private final InboundMessagePipeline inbound;
+    private WebSocketSessionPool pool;
 
-    public ProxiedWebSocket(OkHttpClient wsClient, CountDownLatch countDownLatch) {
+    public ProxiedWebSocket(OkHttpClient wsClient,
+                            WebSocketPoolConfig poolConfig,
+                            CountDownLatch countDownLatch,
+                            AsyncResultLogger resultLogger) {
         this.wsClient = wsClient;
+        this.poolConfig = poolConfig;
         this.countDownLatch = countDownLatch;
+        this.resultLogger = resultLogger;
+        // Echoes are handled on the pipeline consumer thread, okhttp reader threads only hand frames over
+        this.inbound = new InboundMessagePipeline(this, this);
     }
 
     public void close() {
-        // Trigger shutdown of the dispatcher's executor so this process can exit cleanly.
-        wsClient.dispatcher().executorService().shutdown();
+        if (pool != null) {
+            pool.close();
+            resultLogger.log("WS POOL: " + pool.stats());
+        }
+        inbound.close();
+        resultLogger.log("WS INBOUND:%n%s", inbound.stats());
     }
 
-    public void run(String socketURL) throws InterruptedException {
+    /**
+     * Opens the socket pool and pushes the given number of messages through it as fast as it accepts them.
+     */
+    public void run(String socketURL, int messages) throws InterruptedException {
         Request request = new Request.Builder()
                 .url(socketURL)
                 .build();
-        WebSocket ws = wsClient.newWebSocket(request, this);
+        pool = new WebSocketSessionPool(wsClient, request, inbound, poolConfig);
+        if (!pool.awaitOpen(30, TimeUnit.SECONDS)) {
+            resultLogger.log("No WebSocket opened within 30s, messages stay queued until one does");
+        }
 
-        for (int i = 0; i <= countDownLatch.getCount(); i++) {
-            ws.send("Salute no." + i);
-            Thread.sleep((long) (Math.random()*1000));
+        for (int i = 0; i < messages; i++) {
+            pool.send("Salute no." + i);
         }
     }
 
     @Override
     public void onOpen(WebSocket webSocket, Response response) {
-        webSocket.send("Hello...");
-        webSocket.send("...World!");
+        resultLogger.log("OPEN: " + response.code());
     }
 
     @Override
-    public void onMessage(WebSocket webSocket, String text) {
-        System.out.println("MESSAGE: " + text);
-        countDownLatch.countDown();
-    }
-
-    @Override
-    public void onMessage(WebSocket webSocket, ByteString bytes) {
-        System.out.println("MESSAGE: " + bytes.hex());
+    public void onMessage(InboundMessage message) {
+        if (message.isBinary()) {
+            resultLogger.log("MESSAGE: " + message.bytes().size() + " bytes");
+        } else {
+            resultLogger.log("MESSAGE: " + message.text());
+        }
         countDownLatch.countDown();
     }
 
     @Override
     public void onClosing(WebSocket webSocket, int code, String reason) {
-        webSocket.close(1000, null);
-        System.out.println("CLOSE: " + code + " " + reason);
+        resultLogger.log("CLOSE: " + code + " " + reason);
     }
 
     @Override
     public void onFailure(WebSocket webSocket, Throwable t, Response response) {
-        t.printStackTrace();
+        resultLogger.log("WS FAILURE: " + t);
     }
-}
\ No newline at end of file
+}
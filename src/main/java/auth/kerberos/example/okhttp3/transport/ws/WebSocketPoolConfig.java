@@ -0,0 +1,107 @@
+package auth.kerberos.example.okhttp3.transport.ws;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizing, backpressure, batching and reconnect options of a {@link WebSocketSessionPool}.
+ */
+public class WebSocketPoolConfig {
+    public static final int DEFAULT_SESSIONS = 4;
+    /*
+     * okhttp closes a socket whose outbound queue exceeds 16 MiB, sessions stop taking messages well before that
+     * */
+    public static final long DEFAULT_MAX_QUEUE_BYTES = 1024 * 1024;
+    public static final int DEFAULT_OUTBOUND_CAPACITY = 16 * 1024;
+    public static final long DEFAULT_RECONNECT_BASE_MILLIS = 100;
+    public static final long DEFAULT_RECONNECT_MAX_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private int sessions = DEFAULT_SESSIONS;
+    private long maxQueueBytes = DEFAULT_MAX_QUEUE_BYTES;
+    private int outboundCapacity = DEFAULT_OUTBOUND_CAPACITY;
+    private int batchMaxMessages = 1;
+    private int batchMaxBytes = 16 * 1024;
+    private long reconnectBaseMillis = DEFAULT_RECONNECT_BASE_MILLIS;
+    private long reconnectMaxMillis = DEFAULT_RECONNECT_MAX_MILLIS;
+
+    public int getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Sockets kept open through the proxy, each one authenticated once when it connects.
+     */
+    public WebSocketPoolConfig setSessions(int sessions) {
+        this.sessions = sessions;
+        return this;
+    }
+
+    public long getMaxQueueBytes() {
+        return maxQueueBytes;
+    }
+
+    /**
+     * Outbound bytes a socket may have queued in okhttp before it is skipped until its writer catches up.
+     */
+    public WebSocketPoolConfig setMaxQueueBytes(long maxQueueBytes) {
+        this.maxQueueBytes = maxQueueBytes;
+        return this;
+    }
+
+    public int getOutboundCapacity() {
+        return outboundCapacity;
+    }
+
+    /**
+     * Messages buffered by the pool before {@link WebSocketSessionPool#send} blocks the caller.
+     */
+    public WebSocketPoolConfig setOutboundCapacity(int outboundCapacity) {
+        this.outboundCapacity = outboundCapacity;
+        return this;
+    }
+
+    public int getBatchMaxMessages() {
+        return batchMaxMessages;
+    }
+
+    /**
+     * Queued messages the sender drains per wake-up and sends back to back on one socket, each in its own frame. 1 (the
+     * default) picks a socket for every message.
+     */
+    public WebSocketPoolConfig setBatchMaxMessages(int batchMaxMessages) {
+        this.batchMaxMessages = batchMaxMessages;
+        return this;
+    }
+
+    public int getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    /**
+     * Size (in chars) past which a batch is sent without draining more messages.
+     */
+    public WebSocketPoolConfig setBatchMaxBytes(int batchMaxBytes) {
+        this.batchMaxBytes = batchMaxBytes;
+        return this;
+    }
+
+    public long getReconnectBaseMillis() {
+        return reconnectBaseMillis;
+    }
+
+    /**
+     * First reconnect backoff, doubled on every consecutive failure up to the maximum and fully jittered.
+     */
+    public WebSocketPoolConfig setReconnectBaseMillis(long reconnectBaseMillis) {
+        this.reconnectBaseMillis = reconnectBaseMillis;
+        return this;
+    }
+
+    public long getReconnectMaxMillis() {
+        return reconnectMaxMillis;
+    }
+
+    public WebSocketPoolConfig setReconnectMaxMillis(long reconnectMaxMillis) {
+        this.reconnectMaxMillis = reconnectMaxMillis;
+        return this;
+    }
+}
@@ -0,0 +1,300 @@
+package auth.kerberos.example.okhttp3.transport.ws;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pool of WebSockets to one endpoint through the Kerberos proxy, spreading outbound messages across them.
+ * <p>
+ * Messages are buffered in a bounded queue and handed to the least loaded open socket by a single sender thread, which
+ * optionally drains several of them per wake-up and sends them back to back on the same socket. Every message keeps its
+ * own frame, so receivers need no framing of their own. A socket whose okhttp outbound queue exceeds
+ * {@link WebSocketPoolConfig#getMaxQueueBytes()} is skipped until its writer catches up; when no socket can take more,
+ * the pool queue fills up and {@link #send(String)} blocks, pushing backpressure back to the producers.
+ * <p>
+ * Failed or closed sockets are reopened in the background with jittered exponential backoff. Each reconnect is a new
+ * proxy connection and thus authenticates once.
+ * <p>
+ * Notes:
+ * - Inbound messages and lifecycle events of every socket are forwarded to the given listener
+ * - Delivery is at most once: messages queued inside a socket that fails are lost with it
+ */
+public class WebSocketSessionPool implements Closeable {
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final OkHttpClient client;
+    private final Request request;
+    private final WebSocketListener listener;
+    private final WebSocketPoolConfig config;
+    private final Session[] sessions;
+    private final BlockingQueue<String> outbound;
+    private final ScheduledExecutorService reconnector;
+    private final Thread sender;
+    private final CountDownLatch firstOpen = new CountDownLatch(1);
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private final LongAdder batchesSent = new LongAdder();
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private volatile boolean closed;
+
+    public WebSocketSessionPool(@NotNull OkHttpClient client,
+                                @NotNull Request request,
+                                @NotNull WebSocketListener listener,
+                                @NotNull WebSocketPoolConfig config) {
+        this.client = client;
+        this.request = request;
+        this.listener = listener;
+        this.config = config;
+        this.outbound = new ArrayBlockingQueue<>(config.getOutboundCapacity());
+        this.reconnector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ws-pool-reconnect");
+            t.setDaemon(true);
+            return t;
+        });
+        this.sessions = new Session[config.getSessions()];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = new Session(i);
+            sessions[i].connect();
+        }
+        this.sender = new Thread(this::sendLoop, "ws-pool-sender");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * Queues a message, blocking while the pool is saturated.
+     */
+    public void send(@NotNull String message) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("WebSocket pool closed");
+        }
+        outbound.put(message);
+    }
+
+    /**
+     * Queues a message, waiting at most the given time for room.
+     *
+     * @return false if the pool stayed saturated or is closed
+     */
+    public boolean offer(@NotNull String message, long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        return !closed && outbound.offer(message, timeout, unit);
+    }
+
+    /**
+     * Waits until at least one socket is open.
+     */
+    public boolean awaitOpen(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        return firstOpen.await(timeout, unit);
+    }
+
+    public int openSessions() {
+        int open = 0;
+        for (Session session : sessions) {
+            if (session.open) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    public String stats() {
+        return String.format("sessions=%d/%d queued=%d messages=%d batches=%d reconnects=%d",
+                openSessions(), sessions.length, outbound.size(), messagesSent.sum(), batchesSent.sum(),
+                reconnects.sum());
+    }
+
+    /**
+     * Sends what is still queued (for a few seconds at most), then closes every socket.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            sender.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sender.interrupt();
+        reconnector.shutdownNow();
+        for (Session session : sessions) {
+            session.close();
+        }
+    }
+
+    private void sendLoop() {
+        List<String> batch = new ArrayList<>(config.getBatchMaxMessages());
+        try {
+            while (true) {
+                String first = outbound.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                int chars = first.length();
+                String next;
+                while (batch.size() < config.getBatchMaxMessages()
+                        && chars < config.getBatchMaxBytes()
+                        && (next = outbound.poll()) != null) {
+                    batch.add(next);
+                    chars += next.length();
+                }
+                int sent = 0;
+                while (sent < batch.size()) {
+                    int dispatched = dispatch(batch, sent);
+                    sent += dispatched;
+                    if (dispatched == 0) {
+                        // Every socket is down or backed up, the pool queue absorbs (then blocks) producers meanwhile
+                        LockSupport.parkNanos(PARK_NANOS);
+                        if (Thread.interrupted()) {
+                            return;
+                        }
+                    }
+                }
+                batchesSent.increment();
+                messagesSent.add(batch.size());
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends the batch from the given index on the open socket with the smallest outbound queue below the limit,
+     * scanning from a rotating start so equally loaded sockets take turns.
+     *
+     * @return the number of messages sent, the rest is retried on another socket
+     */
+    private int dispatch(List<String> batch, int from) {
+        int start = Math.floorMod(nextSession.getAndIncrement(), sessions.length);
+        WebSocket best = null;
+        long bestQueue = Long.MAX_VALUE;
+        for (int i = 0; i < sessions.length; i++) {
+            Session session = sessions[(start + i) % sessions.length];
+            WebSocket webSocket = session.webSocket;
+            if (!session.open || webSocket == null) {
+                continue;
+            }
+            long queued = webSocket.queueSize();
+            if (queued < config.getMaxQueueBytes() && queued < bestQueue) {
+                best = webSocket;
+                bestQueue = queued;
+            }
+        }
+        if (best == null) {
+            return 0;
+        }
+        // send() returns false once the socket started closing, the remaining messages are retried on another one
+        int sent = 0;
+        while (from + sent < batch.size() && best.send(batch.get(from + sent))) {
+            sent++;
+        }
+        return sent;
+    }
+
+    private final class Session extends WebSocketListener {
+        private final int id;
+        private volatile WebSocket webSocket;
+        private volatile boolean open;
+        private int failures;
+
+        private Session(int id) {
+            this.id = id;
+        }
+
+        private synchronized void connect() {
+            // Synchronized with reconnect(), so a failure reported before newWebSocket returns still finds its socket
+            if (!closed) {
+                webSocket = client.newWebSocket(request, this);
+            }
+        }
+
+        private void close() {
+            WebSocket current = webSocket;
+            open = false;
+            if (current != null) {
+                current.close(1000, "Pool closed");
+            }
+        }
+
+        private synchronized void reconnect(WebSocket failed) {
+            // Only the current socket triggers a reconnect, late events from a replaced one are ignored
+            if (closed || failed != webSocket) {
+                return;
+            }
+            open = false;
+            webSocket = null;
+            long ceiling = Math.min(config.getReconnectMaxMillis(),
+                    config.getReconnectBaseMillis() << Math.min(failures, 20));
+            failures++;
+            long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+            log.debug("WebSocket session {} down, reconnecting in {}ms", id, delay);
+            reconnects.increment();
+            reconnector.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void onOpen(@NotNull WebSocket webSocket, @NotNull Response response) {
+            synchronized (this) {
+                failures = 0;
+            }
+            open = true;
+            firstOpen.countDown();
+            listener.onOpen(webSocket, response);
+        }
+
+        @Override
+        public void onMessage(@NotNull WebSocket webSocket, @NotNull String text) {
+            listener.onMessage(webSocket, text);
+        }
+
+        @Override
+        public void onMessage(@NotNull WebSocket webSocket, @NotNull ByteString bytes) {
+            listener.onMessage(webSocket, bytes);
+        }
+
+        @Override
+        public void onClosing(@NotNull WebSocket webSocket, int code, @NotNull String reason) {
+            webSocket.close(1000, null);
+            listener.onClosing(webSocket, code, reason);
+        }
+
+        @Override
+        public void onClosed(@NotNull WebSocket webSocket, int code, @NotNull String reason) {
+            reconnect(webSocket);
+            listener.onClosed(webSocket, code, reason);
+        }
+
+        @Override
+        public void onFailure(@NotNull WebSocket webSocket, @NotNull Throwable t, @Nullable Response response) {
+            reconnect(webSocket);
+            listener.onFailure(webSocket, t, response);
+        }
+    }
+}
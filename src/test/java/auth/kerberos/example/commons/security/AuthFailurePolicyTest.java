@@ -0,0 +1,124 @@
+package auth.kerberos.example.commons.security;
+
+import org.ietf.jgss.GSSException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AuthFailurePolicyTest {
+    private static final String PROXY = "proxy.example.com";
+
+    @Test
+    void cachesFailureForTheNegativeCacheWindow() throws Exception {
+        AuthFailurePolicy policy = new AuthFailurePolicy()
+                .setNegativeCacheMillis(100);
+        GSSException failure = new GSSException(GSSException.UNAVAILABLE);
+        policy.failed(PROXY, failure);
+
+        GSSException fastFailure = assertThrows(GSSException.class, () -> policy.check(PROXY));
+        assertTrue(fastFailure instanceof AuthFailurePolicy.FastFailure);
+        assertEquals(GSSException.UNAVAILABLE, fastFailure.getMajor());
+        assertSame(failure, fastFailure.getCause());
+        assertTrue(policy.isFailingFast(PROXY));
+
+        Thread.sleep(150);
+        policy.check(PROXY);
+        assertFalse(policy.isFailingFast(PROXY));
+    }
+
+    @Test
+    void failuresOfTheSameWindowCountOnce() throws Exception {
+        AuthFailurePolicy policy = new AuthFailurePolicy()
+                .setFailureThreshold(2)
+                .setNegativeCacheMillis(100)
+                .setBackoffBaseMillis(0)
+                .setBackoffMaxMillis(60_000);
+        policy.failed(PROXY, new GSSException(GSSException.UNAVAILABLE));
+        policy.failed(PROXY, new GSSException(GSSException.UNAVAILABLE));
+
+        // Still below the threshold: no half-open probe, every caller goes through
+        Thread.sleep(150);
+        policy.check(PROXY);
+        policy.check(PROXY);
+
+        // The second window opens the circuit
+        policy.failed(PROXY, new GSSException(GSSException.UNAVAILABLE));
+        policy.check(PROXY);
+        assertThrows(GSSException.class, () -> policy.check(PROXY));
+    }
+
+    @Test
+    void halfOpenCircuitLetsASingleProbeThrough() throws Exception {
+        AuthFailurePolicy policy = new AuthFailurePolicy()
+                .setFailureThreshold(1)
+                .setBackoffBaseMillis(0)
+                .setBackoffMaxMillis(60_000);
+        policy.failed(PROXY, new GSSException(GSSException.UNAVAILABLE));
+
+        policy.check(PROXY);
+        assertThrows(AuthFailurePolicy.FastFailure.class, () -> policy.check(PROXY));
+        assertTrue(policy.isFailingFast(PROXY));
+
+        policy.succeeded(PROXY);
+        policy.check(PROXY);
+        policy.check(PROXY);
+        assertFalse(policy.isFailingFast(PROXY));
+    }
+
+    @Test
+    void failedProbeOpensTheCircuitAgain() throws Exception {
+        AuthFailurePolicy policy = new AuthFailurePolicy()
+                .setFailureThreshold(1)
+                .setBackoffBaseMillis(50)
+                .setBackoffMaxMillis(50);
+        policy.failed(PROXY, new GSSException(GSSException.UNAVAILABLE));
+        Thread.sleep(80);
+
+        policy.check(PROXY);
+        policy.failed(PROXY, new GSSException(GSSException.UNAVAILABLE));
+        Thread.sleep(80);
+
+        // Backoff elapsed: a new probe goes through, the others keep failing fast
+        policy.check(PROXY);
+        assertThrows(AuthFailurePolicy.FastFailure.class, () -> policy.check(PROXY));
+    }
+
+    @Test
+    void loginDependentFailureIsReleasedWhenTheLoginRecovers() throws Exception {
+        AuthFailurePolicy policy = new AuthFailurePolicy()
+                .setNegativeCacheMillis(60_000);
+        policy.failed(PROXY, new GSSException(GSSException.NO_CRED), true);
+        policy.failed(AuthFailurePolicy.LOGIN_TARGET, new GSSException(GSSException.NO_CRED));
+        assertThrows(GSSException.class, () -> policy.check(PROXY));
+
+        policy.succeeded(AuthFailurePolicy.LOGIN_TARGET);
+        policy.check(PROXY);
+        assertFalse(policy.isFailingFast(PROXY));
+    }
+
+    @Test
+    void ownFailureIsKeptWhenTheLoginRecovers() {
+        AuthFailurePolicy policy = new AuthFailurePolicy()
+                .setNegativeCacheMillis(60_000);
+        policy.failed(PROXY, new GSSException(GSSException.BAD_NAME));
+        policy.failed(AuthFailurePolicy.LOGIN_TARGET, new GSSException(GSSException.NO_CRED));
+
+        policy.succeeded(AuthFailurePolicy.LOGIN_TARGET);
+        assertThrows(GSSException.class, () -> policy.check(PROXY));
+    }
+
+    @Test
+    void targetsFailIndependently() throws Exception {
+        AuthFailurePolicy policy = new AuthFailurePolicy()
+                .setNegativeCacheMillis(60_000);
+        policy.failed(PROXY, new GSSException(GSSException.UNAVAILABLE));
+
+        assertThrows(GSSException.class, () -> policy.check(PROXY));
+        policy.check("other.example.com");
+        policy.check(AuthFailurePolicy.LOGIN_TARGET);
+    }
+}
@@ -0,0 +1,81 @@
+package auth.kerberos.example.commons.security;
+
+import org.junit.jupiter.api.Test;
+
+import javax.security.auth.kerberos.KerberosKey;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KeyTab;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class DerivedKeyTabTest {
+    private static final String PRINCIPAL = "user@EXAMPLE.COM";
+    private static final String PASSWORD = "secret";
+
+    @Test
+    void keytabHoldsTheKeysDerivedFromThePassword() throws Exception {
+        KerberosPrincipal principal = new KerberosPrincipal(PRINCIPAL);
+        try (DerivedKeyTab keyTab = DerivedKeyTab.derive(PRINCIPAL, PASSWORD.toCharArray())) {
+            KerberosKey[] keys = KeyTab.getInstance(principal, keyTab.getPath().toFile()).getKeys(principal);
+
+            assertEquals(DerivedKeyTab.DEFAULT_ALGORITHMS.length, keys.length);
+            for (String algorithm : DerivedKeyTab.DEFAULT_ALGORITHMS) {
+                KerberosKey expected = new KerberosKey(principal, PASSWORD.toCharArray(), algorithm);
+                KerberosKey actual = keyOfType(keys, expected.getKeyType());
+                assertNotNull(actual, algorithm);
+                assertEquals(principal, actual.getPrincipal());
+                assertArrayEquals(expected.getEncoded(), actual.getEncoded(), algorithm);
+            }
+        }
+    }
+
+    @Test
+    void derivesOnlyTheRequestedAlgorithms() throws Exception {
+        KerberosPrincipal principal = new KerberosPrincipal(PRINCIPAL);
+        try (DerivedKeyTab keyTab = DerivedKeyTab.derive(PRINCIPAL, PASSWORD.toCharArray(), "AES128")) {
+            KerberosKey[] keys = KeyTab.getInstance(principal, keyTab.getPath().toFile()).getKeys(principal);
+
+            assertEquals(1, keys.length);
+            assertEquals(new KerberosKey(principal, PASSWORD.toCharArray(), "AES128").getKeyType(), keys[0].getKeyType());
+        }
+    }
+
+    @Test
+    void passwordIsClearedAndKeytabDeletedOnClose() throws Exception {
+        char[] password = PASSWORD.toCharArray();
+        DerivedKeyTab keyTab = DerivedKeyTab.derive(PRINCIPAL, password);
+        Path path = keyTab.getPath();
+
+        assertArrayEquals(new char[PASSWORD.length()], password);
+        keyTab.close();
+        assertFalse(Files.exists(path));
+        assertFalse(Files.exists(path.getParent()));
+    }
+
+    @Test
+    void keytabDirectoryIsOwnerOnly() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        try (DerivedKeyTab keyTab = DerivedKeyTab.derive(PRINCIPAL, PASSWORD.toCharArray())) {
+            assertEquals(PosixFilePermissions.fromString("rwx------"),
+                    Files.getPosixFilePermissions(keyTab.getPath().getParent()));
+            assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(keyTab.getPath()));
+        }
+    }
+
+    private static KerberosKey keyOfType(KerberosKey[] keys, int keyType) {
+        for (KerberosKey key : keys) {
+            if (key.getKeyType() == keyType) {
+                return key;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,87 @@
+package auth.kerberos.example.commons.security;
+
+import org.ietf.jgss.GSSException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpnegoEngineRegistryTest {
+    private SpnegoEngineRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SpnegoEngineRegistry(2, 60_000, new SpnegoEngineConfig());
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.close();
+    }
+
+    @Test
+    void returnsTheSameEngineForATarget() {
+        assertSame(engine("a"), engine("a"));
+        assertNotSame(engine("a"), engine("b"));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEnginePastTheMaximumSize() {
+        SpnegoEngine first = engine("a");
+        engine("b");
+        engine("c");
+
+        assertEquals(2, registry.size());
+        // Unlinked only, callers still holding it finish their token
+        assertFalse(first.isClosed());
+        assertNotSame(first, engine("a"));
+    }
+
+    @Test
+    void replacesAClosedEngine() {
+        SpnegoEngine closed = engine("a");
+        closed.close();
+
+        SpnegoEngine replacement = engine("a");
+        assertNotSame(closed, replacement);
+        assertFalse(replacement.isClosed());
+    }
+
+    @Test
+    void withEngineRetriesOnAFreshEngineOnceClosed() throws GSSException {
+        SpnegoEngine first = engine("a");
+
+        SpnegoEngine used = registry.withEngine("", SpnegoEngine.DEFAULT_SERVICE_NAME, "a",
+                SpnegoEngine.GSS_SPNEGO_MECH_OID, null, engine -> {
+                    if (engine == first) {
+                        engine.close();
+                        throw new GSSException(GSSException.UNAVAILABLE);
+                    }
+                    return engine;
+                });
+
+        assertNotSame(first, used);
+        assertFalse(used.isClosed());
+    }
+
+    @Test
+    void closeClosesAllEngines() {
+        SpnegoEngine a = engine("a");
+        SpnegoEngine b = engine("b");
+
+        registry.close();
+        assertTrue(a.isClosed());
+        assertTrue(b.isClosed());
+        assertEquals(0, registry.size());
+    }
+
+    private SpnegoEngine engine(String host) {
+        return registry.get("", SpnegoEngine.DEFAULT_SERVICE_NAME, host, SpnegoEngine.GSS_SPNEGO_MECH_OID, null);
+    }
+}
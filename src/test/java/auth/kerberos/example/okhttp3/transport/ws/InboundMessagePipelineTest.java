@@ -0,0 +1,146 @@
+package auth.kerberos.example.okhttp3.transport.ws;
+
+import okhttp3.Request;
+import okhttp3.WebSocket;
+import okio.ByteString;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InboundMessagePipelineTest {
+
+    @Test
+    void keepsSocketOrderAcrossRingWraps() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(100);
+        InboundMessagePipeline pipeline = new InboundMessagePipeline(message -> {
+            received.add(message.text());
+            done.countDown();
+        }, null, 1, 4, 2, InboundMessagePipeline.OverflowPolicy.BLOCK);
+        StubWebSocket socket = new StubWebSocket();
+
+        for (int i = 0; i < 100; i++) {
+            pipeline.onMessage(socket, Integer.toString(i));
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.toString(i), received.get(i));
+        }
+        assertTrue(pipeline.stats().contains("received=100 processed=100 dropped=0"), pipeline.stats());
+        pipeline.close();
+    }
+
+    @Test
+    void dropPolicyDropsFramesOnceTheRingIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        InboundMessagePipeline pipeline = new InboundMessagePipeline(message -> release.await(),
+                null, 1, 2, 16, InboundMessagePipeline.OverflowPolicy.DROP);
+        StubWebSocket socket = new StubWebSocket();
+
+        // The consumer holds the first frame, so the two slots stay taken
+        for (int i = 0; i < 5; i++) {
+            pipeline.onMessage(socket, "frame");
+        }
+        release.countDown();
+
+        awaitCondition(() -> pipeline.stats().contains("received=5 processed=2 dropped=3"), pipeline);
+        assertEquals(-1, socket.closeCode);
+        pipeline.close();
+    }
+
+    @Test
+    void closeSocketPolicyClosesTheSocketOnOverflow() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        InboundMessagePipeline pipeline = new InboundMessagePipeline(message -> release.await(),
+                null, 1, 2, 16, InboundMessagePipeline.OverflowPolicy.CLOSE_SOCKET);
+        StubWebSocket socket = new StubWebSocket();
+
+        for (int i = 0; i < 3; i++) {
+            pipeline.onMessage(socket, "frame");
+        }
+        release.countDown();
+
+        assertEquals(1008, socket.closeCode);
+        awaitCondition(() -> pipeline.stats().contains("received=3 processed=2 dropped=1"), pipeline);
+        pipeline.close();
+    }
+
+    @Test
+    void closedSocketIsFoldedOnceItsFramesAreProcessed() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        InboundMessagePipeline pipeline = new InboundMessagePipeline(message -> release.await(),
+                null, 1, 16, 16, InboundMessagePipeline.OverflowPolicy.BLOCK);
+        StubWebSocket socket = new StubWebSocket();
+
+        pipeline.onMessage(socket, "first");
+        pipeline.onMessage(socket, "second");
+        pipeline.onClosed(socket, 1000, "");
+
+        // Frames still buffered: the socket keeps its own line
+        assertTrue(pipeline.stats().startsWith("socket-1 received=2"), pipeline.stats());
+        assertFalse(pipeline.stats().contains("closed"), pipeline.stats());
+
+        release.countDown();
+        awaitCondition(() -> pipeline.stats().startsWith("closed socket-0 received=2 processed=2 dropped=0"),
+                pipeline);
+        pipeline.close();
+    }
+
+    private static void awaitCondition(BooleanSupplier condition, InboundMessagePipeline pipeline)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met, stats:\n" + pipeline.stats());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static final class StubWebSocket implements WebSocket {
+        private volatile int closeCode = -1;
+
+        @NotNull
+        @Override
+        public Request request() {
+            return new Request.Builder().url("http://localhost/").build();
+        }
+
+        @Override
+        public long queueSize() {
+            return 0;
+        }
+
+        @Override
+        public boolean send(@NotNull String text) {
+            return true;
+        }
+
+        @Override
+        public boolean send(@NotNull ByteString bytes) {
+            return true;
+        }
+
+        @Override
+        public boolean close(int code, @Nullable String reason) {
+            closeCode = code;
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+}